@@ -0,0 +1,238 @@
+package com.pichs.app.xfilechooser;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.pichs.filechooser.BitmapPool;
+import com.pichs.filechooser.ImageCropper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 剪裁的耗时和峰值内存
+ * 对比的是整图解码再 createBitmap 剪裁、缩放、编码的做法，结果输出到 logcat（tag: CropBenchmark）
+ * 峰值内存是执行过程中 native 堆 + Java 堆已用大小的最大值减去开始前的值，采样间隔 2ms
+ */
+@RunWith(AndroidJUnit4.class)
+public class CropBenchmarkTest {
+
+    private static final String TAG = "CropBenchmark";
+
+    private static final int SOURCE_WIDTH = 4000;
+    private static final int SOURCE_HEIGHT = 3000;
+
+    private static final int OUTPUT_SIZE = 400;
+
+    private static final int ITERATIONS = 5;
+
+    private Context mContext;
+    private File mDir;
+    private File mSource;
+    private Rect mCropRect;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mDir = new File(mContext.getCacheDir(), "crop_benchmark");
+        mDir.mkdirs();
+        mSource = createSource(new File(mDir, "source.jpg"));
+        // 相机照片上常见的居中正方形剪裁
+        final int side = Math.min(SOURCE_WIDTH, SOURCE_HEIGHT) / 2;
+        final int left = (SOURCE_WIDTH - side) / 2;
+        final int top = (SOURCE_HEIGHT - side) / 2;
+        mCropRect = new Rect(left, top, left + side, top + side);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void outputHasRequestedSize() throws Exception {
+        File output = new File(mDir, "output_check.jpg");
+        ImageCropper.crop(mContext, Uri.fromFile(mSource), mCropRect, OUTPUT_SIZE, OUTPUT_SIZE, output,
+                Bitmap.CompressFormat.JPEG, ImageCropper.DEFAULT_QUALITY);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(output.getAbsolutePath(), options);
+        assertEquals(OUTPUT_SIZE, options.outWidth);
+        assertEquals(OUTPUT_SIZE, options.outHeight);
+    }
+
+    @Test
+    public void latencyAndPeakMemoryAgainstFullDecode() throws Exception {
+        final File legacyOutput = new File(mDir, "output_legacy.jpg");
+        final File output = new File(mDir, "output_cropper.jpg");
+        final Uri uri = Uri.fromFile(mSource);
+        // 预热，文件进入页缓存，两边条件一致
+        legacyCrop(legacyOutput);
+        ImageCropper.crop(mContext, uri, mCropRect, OUTPUT_SIZE, OUTPUT_SIZE, output,
+                Bitmap.CompressFormat.JPEG, ImageCropper.DEFAULT_QUALITY);
+
+        long[] legacyTime = new long[ITERATIONS];
+        long[] legacyPeak = new long[ITERATIONS];
+        long[] cropperTime = new long[ITERATIONS];
+        long[] cropperPeak = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            MemorySampler sampler = MemorySampler.begin();
+            long start = SystemClock.elapsedRealtimeNanos();
+            legacyCrop(legacyOutput);
+            legacyTime[i] = SystemClock.elapsedRealtimeNanos() - start;
+            legacyPeak[i] = sampler.end();
+
+            sampler = MemorySampler.begin();
+            start = SystemClock.elapsedRealtimeNanos();
+            ImageCropper.crop(mContext, uri, mCropRect, OUTPUT_SIZE, OUTPUT_SIZE, output,
+                    Bitmap.CompressFormat.JPEG, ImageCropper.DEFAULT_QUALITY);
+            cropperTime[i] = SystemClock.elapsedRealtimeNanos() - start;
+            cropperPeak[i] = sampler.end();
+        }
+        Log.i(TAG, "source " + SOURCE_WIDTH + "x" + SOURCE_HEIGHT + ", crop " + mCropRect.width() + "x" + mCropRect.height()
+                + " -> " + OUTPUT_SIZE + "x" + OUTPUT_SIZE);
+        Log.i(TAG, "full decode:  " + report(legacyTime, legacyPeak));
+        Log.i(TAG, "ImageCropper: " + report(cropperTime, cropperPeak));
+
+        assertTrue(output.length() > 0);
+        assertTrue(legacyOutput.length() > 0);
+    }
+
+    /**
+     * 整图解码后剪裁：解码整张原图，createBitmap 取出区域，缩放到输出尺寸后编码
+     */
+    private void legacyCrop(File output) throws IOException {
+        Bitmap source = BitmapFactory.decodeFile(mSource.getAbsolutePath());
+        assertNotNull(source);
+        Bitmap region = Bitmap.createBitmap(source, mCropRect.left, mCropRect.top, mCropRect.width(), mCropRect.height());
+        Bitmap scaled = Bitmap.createScaledBitmap(region, OUTPUT_SIZE, OUTPUT_SIZE, true);
+        try {
+            write(scaled, output);
+        } finally {
+            scaled.recycle();
+            region.recycle();
+            source.recycle();
+        }
+    }
+
+    private static String report(long[] nanos, long[] peakBytes) {
+        return String.format("median %.1f ms, peak %.1f MB", median(nanos) / 1e6, median(peakBytes) / 1024.0 / 1024.0);
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * 有细节的原图，JPEG 编码后大小接近真实照片
+     */
+    private static File createSource(File file) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(SOURCE_WIDTH, SOURCE_HEIGHT, Bitmap.Config.ARGB_8888);
+        try {
+            Canvas canvas = new Canvas(bitmap);
+            canvas.drawColor(0xff808080);
+            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            Random random = new Random(SOURCE_WIDTH);
+            for (int i = 0; i < 2000; i++) {
+                paint.setColor(0xff000000 | random.nextInt(0xffffff));
+                canvas.drawCircle(random.nextInt(SOURCE_WIDTH), random.nextInt(SOURCE_HEIGHT), 10 + random.nextInt(200), paint);
+            }
+            write(bitmap, file);
+        } finally {
+            bitmap.recycle();
+        }
+        return file;
+    }
+
+    private static void write(Bitmap bitmap, File file) throws IOException {
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        try {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, ImageCropper.DEFAULT_QUALITY, os)) {
+                throw new IOException("Compress failed: " + file);
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * 后台线程采样已用内存，8.0 开始 Bitmap 像素在 native 堆，之前在 Java 堆，两者都算
+     */
+    private static final class MemorySampler extends Thread {
+
+        private final long mBaseline;
+        private volatile boolean mRunning = true;
+        private long mPeak;
+
+        private MemorySampler(long baseline) {
+            mBaseline = baseline;
+            mPeak = baseline;
+        }
+
+        static MemorySampler begin() {
+            // 清掉池子里上一轮留下的 Bitmap，每轮从同样的状态开始
+            BitmapPool.get().clear();
+            Runtime.getRuntime().gc();
+            Runtime.getRuntime().runFinalization();
+            MemorySampler sampler = new MemorySampler(used());
+            sampler.start();
+            return sampler;
+        }
+
+        /**
+         * 停止采样，返回峰值相对开始时的增量
+         */
+        long end() throws InterruptedException {
+            mRunning = false;
+            join();
+            mPeak = Math.max(mPeak, used());
+            return mPeak - mBaseline;
+        }
+
+        @Override
+        public void run() {
+            while (mRunning) {
+                mPeak = Math.max(mPeak, used());
+                SystemClock.sleep(2);
+            }
+        }
+
+        private static long used() {
+            Runtime runtime = Runtime.getRuntime();
+            return Debug.getNativeHeapAllocatedSize() + runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.pichs.app.xfilechooser;
+
+import android.app.DownloadManager;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.provider.DocumentsContract;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.pichs.filechooser.FileUriUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Downloads 文档的真实路径：批量解析中有查询失败时，不能影响之后的单个解析
+ * 10.0 开始 DownloadProvider 不再返回 _data，只在 10.0 以下执行
+ */
+@RunWith(AndroidJUnit4.class)
+public class DownloadsPathTest {
+
+    private static final String DOWNLOADS_AUTHORITY = "com.android.providers.downloads.documents";
+
+    private Context mContext;
+    private DownloadManager mDownloadManager;
+    private File mFile;
+    private long mId = -1;
+
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue(Build.VERSION.SDK_INT < Build.VERSION_CODES.Q);
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mDownloadManager = (DownloadManager) mContext.getSystemService(Context.DOWNLOAD_SERVICE);
+        File dir = mContext.getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS);
+        dir.mkdirs();
+        mFile = new File(dir, "downloads_path_test.txt");
+        FileOutputStream fos = new FileOutputStream(mFile);
+        try {
+            fos.write("downloads path test".getBytes("UTF-8"));
+        } finally {
+            fos.close();
+        }
+        mId = mDownloadManager.addCompletedDownload(mFile.getName(), "test", false, "text/plain",
+                mFile.getAbsolutePath(), mFile.length(), false);
+        FileUriUtils.clearPathCache();
+    }
+
+    @After
+    public void tearDown() {
+        if (mId >= 0) {
+            mDownloadManager.remove(mId);
+        }
+        if (mFile != null) {
+            mFile.delete();
+        }
+        FileUriUtils.clearPathCache();
+    }
+
+    @Test
+    public void failedBatchKeepsSingleResolutionWorking() throws IOException {
+        final Uri uri = DocumentsContract.buildDocumentUri(DOWNLOADS_AUTHORITY, String.valueOf(mId));
+        // 不存在的 id，批量解析中这一项查询失败
+        final Uri missing = DocumentsContract.buildDocumentUri(DOWNLOADS_AUTHORITY, String.valueOf(Integer.MAX_VALUE));
+        final String expected = mFile.getCanonicalPath();
+
+        List<String> paths = FileUriUtils.getFileRealPaths(mContext, Arrays.asList(missing, uri));
+        assertEquals(expected, new File(paths.get(1)).getCanonicalPath());
+
+        // 不走路径缓存，单个解析仍然直接查到下载记录的路径，而不是拷贝到缓存目录
+        FileUriUtils.clearPathCache();
+        assertEquals(expected, new File(FileUriUtils.getFileRealPath(mContext, uri)).getCanonicalPath());
+
+        // 再批量解析一次，结果不变
+        FileUriUtils.clearPathCache();
+        paths = FileUriUtils.getFileRealPaths(mContext, Arrays.asList(missing, uri));
+        assertEquals(expected, new File(paths.get(1)).getCanonicalPath());
+    }
+}
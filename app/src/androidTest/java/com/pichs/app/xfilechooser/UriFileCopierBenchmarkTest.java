@@ -0,0 +1,203 @@
+package com.pichs.app.xfilechooser;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.pichs.filechooser.UriFileCopier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * UriFileCopier 的正确性和吞吐量
+ * 吞吐量对比的是原来 saveFileFromUri 的 1KB byte[] + BufferedOutputStream 拷贝，结果输出到 logcat（tag: CopyBenchmark）
+ * 中位耗时不能比原来的拷贝慢 {@link #MAX_SLOWDOWN} 以上，留出的余量用来吸收设备上的抖动
+ */
+@RunWith(AndroidJUnit4.class)
+public class UriFileCopierBenchmarkTest {
+
+    private static final String TAG = "CopyBenchmark";
+
+    private static final int BENCHMARK_SIZE = 64 * 1024 * 1024;
+
+    private static final int ITERATIONS = 3;
+
+    private static final double MAX_SLOWDOWN = 1.25;
+
+    private Context mContext;
+    private File mDir;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mDir = new File(mContext.getCacheDir(), "copy_benchmark");
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void copyIsByteIdentical() throws Exception {
+        // 覆盖空文件、不足/超过 1KB、跨 256KB 缓冲区边界、不是整块的尾部
+        int[] sizes = {0, 1, 1023, 1025, 256 * 1024, 256 * 1024 + 7, 3 * 1024 * 1024 + 13};
+        for (int size : sizes) {
+            File src = createFile("src_" + size, size);
+            File dest = new File(mDir, "dest_" + size);
+            long copied = UriFileCopier.copy(mContext, Uri.fromFile(src), dest, null, null);
+            assertEquals("copied bytes, size " + size, size, copied);
+            assertEquals("dest length, size " + size, size, dest.length());
+            assertArrayEquals("content, size " + size, sha256(src), sha256(dest));
+        }
+    }
+
+    @Test
+    public void canceledCopyDeletesDest() throws Exception {
+        File src = createFile("src_cancel", 1024 * 1024);
+        File dest = new File(mDir, "dest_cancel");
+        CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+        try {
+            UriFileCopier.copy(mContext, Uri.fromFile(src), dest, signal, null);
+            fail("expected OperationCanceledException");
+        } catch (OperationCanceledException expected) {
+        }
+        assertFalse(dest.exists());
+    }
+
+    @Test
+    public void throughputAgainstLegacyCopy() throws Exception {
+        File src = createFile("src_benchmark", BENCHMARK_SIZE);
+        Uri uri = Uri.fromFile(src);
+        File legacyDest = new File(mDir, "dest_legacy");
+        File dest = new File(mDir, "dest_copier");
+        // 预热，文件进入页缓存，两边条件一致
+        legacyCopy(uri, legacyDest);
+        UriFileCopier.copy(mContext, uri, dest, null, null);
+
+        long[] legacy = new long[ITERATIONS];
+        long[] copier = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            legacyCopy(uri, legacyDest);
+            legacy[i] = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            UriFileCopier.copy(mContext, uri, dest, null, null);
+            copier[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        Log.i(TAG, "legacy 1KB loop: " + report(legacy));
+        Log.i(TAG, "UriFileCopier:   " + report(copier));
+        Log.i(TAG, "legacy output length " + legacyDest.length() + ", expected " + BENCHMARK_SIZE);
+
+        assertEquals(BENCHMARK_SIZE, dest.length());
+        assertArrayEquals(sha256(src), sha256(dest));
+        assertTrue("UriFileCopier slower than legacy copy: " + report(copier) + " vs " + report(legacy),
+                median(copier) <= median(legacy) * MAX_SLOWDOWN);
+    }
+
+    /**
+     * 原 FileUriUtils.saveFileFromUri 的拷贝循环，原样保留（包括每次写满 1KB 的问题）
+     */
+    private void legacyCopy(Uri uri, File dest) throws IOException {
+        InputStream is = null;
+        BufferedOutputStream bos = null;
+        try {
+            is = mContext.getContentResolver().openInputStream(uri);
+            bos = new BufferedOutputStream(new FileOutputStream(dest, false));
+            byte[] buf = new byte[1024];
+            if (is != null) {
+                is.read(buf);
+                do {
+                    bos.write(buf);
+                } while (is.read(buf) != -1);
+            }
+        } finally {
+            if (is != null) {
+                is.close();
+            }
+            if (bos != null) {
+                bos.close();
+            }
+        }
+    }
+
+    private static String report(long[] nanos) {
+        long median = median(nanos);
+        double seconds = median / 1e9;
+        return String.format("median %.1f ms, %.1f MB/s", median / 1e6, BENCHMARK_SIZE / 1024.0 / 1024.0 / seconds);
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private File createFile(String name, int size) throws IOException {
+        File file = new File(mDir, name);
+        byte[] chunk = new byte[64 * 1024];
+        Random random = new Random(size);
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            int remaining = size;
+            while (remaining > 0) {
+                random.nextBytes(chunk);
+                int count = Math.min(chunk.length, remaining);
+                fos.write(chunk, 0, count);
+                remaining -= count;
+            }
+        } finally {
+            fos.close();
+        }
+        return file;
+    }
+
+    private static byte[] sha256(File file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[64 * 1024];
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = fis.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            fis.close();
+        }
+        return digest.digest();
+    }
+}
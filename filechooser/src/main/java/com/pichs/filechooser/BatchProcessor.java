@@ -0,0 +1,181 @@
+package com.pichs.filechooser;
+
+import android.net.Uri;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 多选结果的并行处理：同时最多处理 parallelism 项，一项完成再提交下一项，不会一次把几百个任务塞进线程池
+ * 结果按选择顺序放在数组里，全部完成后一起回调
+ * 设置了 capacity 时（流式返回），处理完还没被取走的项也计入，取走一项（{@link #onConsumed()}）才会继续提交
+ */
+@SuppressWarnings("ALL")
+final class BatchProcessor {
+
+    interface ItemProcessor {
+        /**
+         * 后台线程执行，抛出的异常会记录在对应项的 {@link ChooseResult#getError()} 中
+         */
+        ChooseResult process(int index, Uri uri) throws Exception;
+    }
+
+    interface Listener {
+        /**
+         * 某一项处理完成，处理线程上回调，完成顺序不固定，需要尽快返回
+         */
+        void onItem(ChooseResult result);
+
+        /**
+         * 全部完成，results 与选择顺序一致；取消后不会回调
+         */
+        void onComplete(ChooseResult[] results);
+    }
+
+    private final Executor mExecutor;
+    private final List<Uri> mUris;
+    private final ItemProcessor mProcessor;
+    private final Listener mListener;
+    private final ChooseResult[] mResults;
+    private final int mParallelism;
+    private int mCapacity = Integer.MAX_VALUE;
+
+    // 以下由 this 保护
+    private int mNext;
+    private int mInFlight;
+    private int mUnconsumed;
+    private int mDone;
+    private boolean mCanceled;
+
+    BatchProcessor(Executor executor, List<Uri> uris, int parallelism, ItemProcessor processor, Listener listener) {
+        mExecutor = executor;
+        mUris = uris;
+        mParallelism = Math.max(1, parallelism);
+        mProcessor = processor;
+        mListener = listener;
+        mResults = new ChooseResult[uris.size()];
+    }
+
+    /**
+     * 已处理但还没被取走的项加上正在处理的项，不超过 capacity，需要在 {@link #start()} 前设置
+     */
+    void setCapacity(int capacity) {
+        mCapacity = Math.max(1, capacity);
+    }
+
+    void start() {
+        if (mUris.isEmpty()) {
+            mListener.onComplete(mResults);
+            return;
+        }
+        pump();
+    }
+
+    /**
+     * 取消，正在处理的项会处理完，之后不再提交新的项，也不再回调
+     */
+    synchronized void cancel() {
+        mCanceled = true;
+    }
+
+    synchronized boolean isCanceled() {
+        return mCanceled;
+    }
+
+    int size() {
+        return mUris.size();
+    }
+
+    /**
+     * 流式返回时，调用方取走一项
+     */
+    void onConsumed() {
+        synchronized (this) {
+            if (mUnconsumed > 0) {
+                mUnconsumed--;
+            }
+        }
+        pump();
+    }
+
+    /**
+     * 在并发数和容量允许的范围内尽量多地提交
+     */
+    private void pump() {
+        while (true) {
+            final int index;
+            synchronized (this) {
+                if (mCanceled || mNext >= mUris.size()
+                        || mInFlight >= mParallelism || mInFlight + mUnconsumed >= mCapacity) {
+                    return;
+                }
+                index = mNext++;
+                mInFlight++;
+            }
+            try {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        processItem(index);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 线程池已关闭或队列已满，这一项按失败处理，不能让整批一直等下去
+                e.printStackTrace();
+                if (!finish(index, ChooseResult.failed(index, mUris.get(index), e))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void processItem(int index) {
+        if (isCanceled()) {
+            return;
+        }
+        final Uri uri = mUris.get(index);
+        ChooseResult result;
+        try {
+            result = mProcessor.process(index, uri);
+        } catch (Throwable e) {
+            e.printStackTrace();
+            result = ChooseResult.failed(index, uri, e);
+        }
+        if (finish(index, result)) {
+            // 一项完成后提交下一项，保持同时处理的数量
+            pump();
+        }
+    }
+
+    /**
+     * 记录一项的结果，返回是否需要继续提交
+     */
+    private boolean finish(int index, ChooseResult result) {
+        final boolean complete;
+        final boolean canceled;
+        synchronized (this) {
+            mInFlight--;
+            if (mCapacity != Integer.MAX_VALUE) {
+                mUnconsumed++;
+            }
+            canceled = mCanceled;
+            complete = !canceled && ++mDone == mUris.size();
+            if (!canceled) {
+                mResults[index] = result;
+                // 在锁内回调，保证所有 onItem 都在 onComplete 之前
+                mListener.onItem(result);
+            }
+        }
+        if (canceled) {
+            // 取消后处理完的项不会交给调用方
+            result.release();
+            return false;
+        }
+        if (complete) {
+            mListener.onComplete(mResults);
+            return false;
+        }
+        return true;
+    }
+}
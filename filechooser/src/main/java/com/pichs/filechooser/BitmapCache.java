@@ -0,0 +1,183 @@
+package com.pichs.filechooser;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 进程内的 Bitmap 内存缓存，按 (Uri, 目标尺寸, 像素格式) 缓存解码结果，按字节数限制大小
+ * 同一张图在预览、剪裁确认、上传列表等地方重复使用时不需要重复解码
+ * 缓存中的 Bitmap 是共享的，拿到后不要 recycle，也不要归还到 {@link BitmapPool}
+ */
+@SuppressWarnings("ALL")
+public class BitmapCache {
+
+    private static final BitmapCache INSTANCE = new BitmapCache();
+
+    private final LruCache<Key, Bitmap> mCache;
+
+    private volatile boolean mRegistered;
+
+    private BitmapCache() {
+        // 默认使用最大堆内存的 1/8
+        mCache = new LruCache<Key, Bitmap>((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8)) {
+            @Override
+            protected int sizeOf(Key key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    public static BitmapCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * 设置最大字节数
+     */
+    public void setMaxBytes(int maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0");
+        }
+        mCache.resize(maxBytes);
+    }
+
+    @Nullable
+    public Bitmap get(@NonNull Uri uri, int maxWidth, int maxHeight, @Nullable Bitmap.Config config) {
+        Bitmap bitmap = mCache.get(new Key(uri, maxWidth, maxHeight, config));
+        if (bitmap != null && bitmap.isRecycled()) {
+            // 被外部回收了
+            mCache.remove(new Key(uri, maxWidth, maxHeight, config));
+            return null;
+        }
+        return bitmap;
+    }
+
+    public void put(@NonNull Uri uri, int maxWidth, int maxHeight, @Nullable Bitmap.Config config, @NonNull Bitmap bitmap) {
+        mCache.put(new Key(uri, maxWidth, maxHeight, config), bitmap);
+    }
+
+    public void remove(@NonNull Uri uri, int maxWidth, int maxHeight, @Nullable Bitmap.Config config) {
+        mCache.remove(new Key(uri, maxWidth, maxHeight, config));
+    }
+
+    /**
+     * 移除这个 Uri 所有尺寸的缓存，文件内容变了但 Uri 不变时使用（复用的拍照、剪裁输出文件）
+     */
+    public void remove(@NonNull Uri uri) {
+        for (Key key : mCache.snapshot().keySet()) {
+            if (key.uri.equals(uri)) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 是否是缓存中的 bitmap
+     */
+    boolean contains(@NonNull Bitmap bitmap) {
+        return mCache.snapshot().containsValue(bitmap);
+    }
+
+    public void clear() {
+        mCache.evictAll();
+    }
+
+    public int getSizeBytes() {
+        return mCache.size();
+    }
+
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+
+    /**
+     * 注册到 Application，系统内存紧张时自动清理（缓存和 {@link BitmapPool}），只注册一次
+     */
+    public void register(@NonNull Context context) {
+        if (mRegistered) {
+            return;
+        }
+        synchronized (this) {
+            if (mRegistered) {
+                return;
+            }
+            Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+            appContext.registerComponentCallbacks(new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    BitmapCache.this.onTrimMemory(level);
+                    BitmapPool.get().onTrimMemory(level);
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {
+                }
+
+                @Override
+                public void onLowMemory() {
+                    onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+                }
+            });
+            mRegistered = true;
+        }
+    }
+
+    /**
+     * 内存紧张时调用：界面不可见或系统内存严重不足时清空，运行中内存偏低时减半
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mCache.trimToSize(mCache.size() / 2);
+        }
+    }
+
+    private static final class Key {
+        final Uri uri;
+        final int maxWidth;
+        final int maxHeight;
+        final Bitmap.Config config;
+
+        Key(Uri uri, int maxWidth, int maxHeight, Bitmap.Config config) {
+            this.uri = uri;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return maxWidth == key.maxWidth && maxHeight == key.maxHeight
+                    && config == key.config && uri.equals(key.uri);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = uri.hashCode();
+            result = 31 * result + maxWidth;
+            result = 31 * result + maxHeight;
+            result = 31 * result + (config != null ? config.hashCode() : 0);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.pichs.filechooser;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.ImageDecoder;
+import android.graphics.Matrix;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 从 Uri 解码 Bitmap，按目标尺寸采样，不需要真实路径
+ * 先只解码尺寸，算出 2 的幂次的 inSampleSize 解码，再精确缩放到目标尺寸以内（保持宽高比）
+ * 解码时优先复用 {@link BitmapPool} 中合适的 Bitmap 作为 inBitmap，缩放丢弃的中间结果也归还到池中
+ * 9.0 及以上使用 ImageDecoder，在读取头信息时直接设置目标尺寸，可解码 HEIC，可输出 HARDWARE Bitmap；
+ * 动图只返回第一帧，需要播放时用 {@link #decodeDrawable}。ImageDecoder 失败或不支持的像素格式回退到 BitmapFactory
+ * ImageDecoder 自带 EXIF 方向处理；BitmapFactory 解码 JPEG 时读取 EXIF 方向，和缩放合并成一次变换，不额外生成全尺寸的图
+ * 解码像素前按尺寸估算占用，经 {@link DecodeScheduler} 准入，并发解码时不会超出内存预算
+ */
+@SuppressWarnings("ALL")
+public class BitmapDecoder {
+
+    private static final String TAG = "BitmapDecoder";
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * 解码
+     *
+     * @param context   上下文
+     * @param uri       图片 Uri
+     * @param maxWidth  最大宽度，<= 0 不限制
+     * @param maxHeight 最大高度，<= 0 不限制
+     * @param config    像素格式，为空时使用 ARGB_8888；HARDWARE 只在 9.0 及以上生效，以下回退为 ARGB_8888
+     * @return Bitmap，不能解码返回 null
+     */
+    @Nullable
+    public static Bitmap decode(@NonNull Context context, @NonNull Uri uri, int maxWidth, int maxHeight,
+                                @Nullable Bitmap.Config config) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && isImageDecoderConfig(config)) {
+            try {
+                Bitmap bitmap = decodeWithImageDecoder(context, uri, maxWidth, maxHeight, config);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            } catch (FileNotFoundException e) {
+                throw e;
+            } catch (IOException e) {
+                Log.w(TAG, "ImageDecoder failed, fall back to BitmapFactory: " + uri, e);
+            }
+        }
+        if (Build.VERSION.SDK_INT >= 26 && config == Bitmap.Config.HARDWARE) {
+            config = Bitmap.Config.ARGB_8888;
+        }
+        return decodeWithBitmapFactory(context, uri, maxWidth, maxHeight, config);
+    }
+
+    /**
+     * 解码为 Drawable，9.0 及以上可用：动图（GIF、动态 WEBP、HEIF 序列）返回 AnimatedImageDrawable，需要调用 start() 播放；
+     * 静态图返回 BitmapDrawable。{@link #decode} 得到的 Bitmap 只有动图的第一帧
+     *
+     * @param maxWidth  最大宽度，<= 0 不限制
+     * @param maxHeight 最大高度，<= 0 不限制
+     */
+    @NonNull
+    @RequiresApi(api = Build.VERSION_CODES.P)
+    public static Drawable decodeDrawable(@NonNull Context context, @NonNull Uri uri,
+                                          final int maxWidth, final int maxHeight) throws IOException {
+        ImageDecoder.Source source = ImageDecoder.createSource(context.getContentResolver(), uri);
+        return ImageDecoder.decodeDrawable(source, new ImageDecoder.OnHeaderDecodedListener() {
+            @Override
+            public void onHeaderDecoded(ImageDecoder decoder, ImageDecoder.ImageInfo info, ImageDecoder.Source source) {
+                final int width = info.getSize().getWidth();
+                final int height = info.getSize().getHeight();
+                if (width > 0 && height > 0 && (maxWidth > 0 || maxHeight > 0)) {
+                    final float scale = Math.min(maxWidth > 0 ? (float) maxWidth / width : Float.MAX_VALUE,
+                            maxHeight > 0 ? (float) maxHeight / height : Float.MAX_VALUE);
+                    if (scale < 1) {
+                        decoder.setTargetSize(Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * ImageDecoder 解码，在 onHeaderDecoded 中按原图尺寸算出目标尺寸，由解码器一次完成采样和缩放，没有中间 Bitmap
+     */
+    @RequiresApi(api = Build.VERSION_CODES.P)
+    private static Bitmap decodeWithImageDecoder(@NonNull Context context, @NonNull Uri uri,
+                                                 final int maxWidth, final int maxHeight,
+                                                 @Nullable final Bitmap.Config config) throws IOException {
+        ImageDecoder.Source source = ImageDecoder.createSource(context.getContentResolver(), uri);
+        // onHeaderDecoded 中申请到的预算，解码结束后释放
+        final long[] acquired = new long[]{-1};
+        try {
+            return ImageDecoder.decodeBitmap(source, new ImageDecoder.OnHeaderDecodedListener() {
+                @Override
+                public void onHeaderDecoded(ImageDecoder decoder, ImageDecoder.ImageInfo info, ImageDecoder.Source source) {
+                    int targetWidth = info.getSize().getWidth();
+                    int targetHeight = info.getSize().getHeight();
+                    if (targetWidth > 0 && targetHeight > 0 && (maxWidth > 0 || maxHeight > 0)) {
+                        final float scale = Math.min(maxWidth > 0 ? (float) maxWidth / targetWidth : Float.MAX_VALUE,
+                                maxHeight > 0 ? (float) maxHeight / targetHeight : Float.MAX_VALUE);
+                        if (scale < 1) {
+                            targetWidth = Math.max(1, Math.round(targetWidth * scale));
+                            targetHeight = Math.max(1, Math.round(targetHeight * scale));
+                            decoder.setTargetSize(targetWidth, targetHeight);
+                        }
+                    }
+                    applyAllocator(decoder, config);
+                    // 直接解码到目标尺寸，没有中间 Bitmap；HARDWARE 的像素不在堆上，按 ARGB_8888 计也偏保守
+                    final long cost = DecodeScheduler.estimateBytes(targetWidth, targetHeight,
+                            config == Bitmap.Config.RGB_565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888);
+                    try {
+                        DecodeScheduler.get().acquire(cost);
+                    } catch (IOException e) {
+                        // 不能抛受检异常，中断时不等待直接解码
+                        return;
+                    }
+                    acquired[0] = cost;
+                }
+            });
+        } finally {
+            if (acquired[0] >= 0) {
+                DecodeScheduler.get().release(acquired[0]);
+            }
+        }
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.P)
+    private static void applyAllocator(ImageDecoder decoder, Bitmap.Config config) {
+        if (config == Bitmap.Config.HARDWARE) {
+            decoder.setAllocator(ImageDecoder.ALLOCATOR_HARDWARE);
+        } else {
+            // 软件 Bitmap，调用方可以读写像素
+            decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+            if (config == Bitmap.Config.RGB_565) {
+                // 允许解码器在不需要透明度时使用 RGB_565
+                decoder.setMemorySizePolicy(ImageDecoder.MEMORY_POLICY_LOW_RAM);
+            }
+        }
+    }
+
+    /**
+     * ImageDecoder 只能输出这几种格式，其余交给 BitmapFactory
+     */
+    private static boolean isImageDecoderConfig(Bitmap.Config config) {
+        return config == null || config == Bitmap.Config.ARGB_8888
+                || config == Bitmap.Config.RGB_565 || config == Bitmap.Config.HARDWARE;
+    }
+
+    private static Bitmap decodeWithBitmapFactory(@NonNull Context context, @NonNull Uri uri, int maxWidth, int maxHeight,
+                                                  @Nullable Bitmap.Config config) throws IOException {
+        // 宽高互换时，目标尺寸也换到原始像素的方向上
+        final int orientation = ExifOrientation.read(context, uri);
+        if (ExifOrientation.swapsDimensions(orientation)) {
+            int tmp = maxWidth;
+            maxWidth = maxHeight;
+            maxHeight = tmp;
+        }
+        UriSource source = FileUriUtils.openSource(context, uri);
+        try {
+            FileDescriptor fd = null;
+            try {
+                ParcelFileDescriptor pfd = source.getParcelFileDescriptor();
+                // 管道、socket 的 fd 读一次就没了，只有普通文件（能拿到大小）才复用 fd，否则每次重新打开流
+                if (pfd.getStatSize() >= 0) {
+                    fd = pfd.getFileDescriptor();
+                }
+            } catch (IOException e) {
+                // 拿不到 fd 的 provider 走流
+            }
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = config != null ? config : Bitmap.Config.ARGB_8888;
+            if (canReuse(options.inPreferredConfig)) {
+                // 解码出可变的 Bitmap，缩放后丢弃的中间结果才能放进池子
+                options.inMutable = true;
+            }
+            // 只解码尺寸，用于计算采样率、估算内存和挑选复用的 Bitmap
+            options.inJustDecodeBounds = true;
+            decode(source, fd, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, maxWidth, maxHeight);
+            options.inJustDecodeBounds = false;
+            // 采样后的尺寸按向上取整估算，宁可多要一点内存
+            final int sampledWidth = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+            final int sampledHeight = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+            final long cost = estimateCost(sampledWidth, sampledHeight, maxWidth, maxHeight, orientation, options.inPreferredConfig);
+            DecodeScheduler.get().acquire(cost);
+            try {
+                return decodePixels(source, fd, options, sampledWidth, sampledHeight, maxWidth, maxHeight, orientation);
+            } finally {
+                DecodeScheduler.get().release(cost);
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * 采样解码的结果加上缩放、摆正生成的新图，两者会同时存在
+     */
+    private static long estimateCost(int sampledWidth, int sampledHeight, int maxWidth, int maxHeight,
+                                     int orientation, Bitmap.Config config) {
+        long cost = DecodeScheduler.estimateBytes(sampledWidth, sampledHeight, config);
+        final float scale = Math.min(maxWidth > 0 ? (float) maxWidth / sampledWidth : Float.MAX_VALUE,
+                maxHeight > 0 ? (float) maxHeight / sampledHeight : Float.MAX_VALUE);
+        if (scale < 1) {
+            cost += DecodeScheduler.estimateBytes(Math.round(sampledWidth * scale), Math.round(sampledHeight * scale), config);
+        } else if (orientation != ExifOrientation.NORMAL) {
+            cost *= 2;
+        }
+        return cost;
+    }
+
+    private static Bitmap decodePixels(UriSource source, FileDescriptor fd, BitmapFactory.Options options,
+                                       int sampledWidth, int sampledHeight, int maxWidth, int maxHeight,
+                                       int orientation) throws IOException {
+        Bitmap bitmap = null;
+        if (options.inMutable && BitmapPool.get().getCurrentBytes() > 0) {
+            final Bitmap inBitmap = BitmapPool.get().getReusable(sampledWidth, sampledHeight, options.inPreferredConfig);
+            if (inBitmap != null) {
+                options.inBitmap = inBitmap;
+                try {
+                    bitmap = decode(source, fd, options);
+                } catch (IllegalArgumentException e) {
+                    // 解码器不支持复用这块内存
+                }
+                options.inBitmap = null;
+                if (bitmap == null) {
+                    // 没能复用这块内存，还给池子，下面正常解码
+                    BitmapPool.get().put(inBitmap);
+                }
+            }
+        }
+        if (bitmap == null) {
+            bitmap = decode(source, fd, options);
+        }
+        return scaleToFit(bitmap, maxWidth, maxHeight, orientation);
+    }
+
+    /**
+     * 计算 2 的幂次的采样率，采样后仍不小于目标尺寸，剩下的交给精确缩放
+     */
+    public static int calculateInSampleSize(int width, int height, int maxWidth, int maxHeight) {
+        final int reqWidth = maxWidth > 0 ? maxWidth : Integer.MAX_VALUE;
+        final int reqHeight = maxHeight > 0 ? maxHeight : Integer.MAX_VALUE;
+        // 按宽高比等比缩放后，受限的那一边决定采样率
+        final float scale = Math.min((float) reqWidth / width, (float) reqHeight / height);
+        if (scale >= 1) {
+            return 1;
+        }
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= width * scale && height / (sampleSize * 2) >= height * scale) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 精确缩放到目标尺寸以内，保持宽高比，不需要缩放时原样返回
+     */
+    static Bitmap scaleToFit(Bitmap bitmap, int maxWidth, int maxHeight) {
+        return scaleToFit(bitmap, maxWidth, maxHeight, ExifOrientation.NORMAL);
+    }
+
+    /**
+     * 精确缩放到目标尺寸以内并按 EXIF 方向摆正，两步合成一个 Matrix，只生成一张新图
+     *
+     * @param maxWidth  原始像素方向上的最大宽度
+     * @param maxHeight 原始像素方向上的最大高度
+     */
+    static Bitmap scaleToFit(Bitmap bitmap, int maxWidth, int maxHeight, int orientation) {
+        if (bitmap == null) {
+            return null;
+        }
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        float scale = Math.min(maxWidth > 0 ? (float) maxWidth / width : Float.MAX_VALUE,
+                maxHeight > 0 ? (float) maxHeight / height : Float.MAX_VALUE);
+        if (scale > 1) {
+            scale = 1;
+        }
+        final Bitmap result;
+        if (orientation == ExifOrientation.NORMAL) {
+            if (scale >= 1) {
+                return bitmap;
+            }
+            result = Bitmap.createScaledBitmap(bitmap,
+                    Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)), true);
+        } else {
+            Matrix matrix = ExifOrientation.getMatrix(orientation);
+            matrix.preScale(scale, scale);
+            result = Bitmap.createBitmap(bitmap, 0, 0, width, height, matrix, true);
+        }
+        if (result != bitmap) {
+            // 中间结果没有别人引用，可变的放回池子复用，其余直接回收
+            if (bitmap.isMutable() && canReuse(bitmap.getConfig())) {
+                BitmapPool.get().put(bitmap);
+            } else {
+                bitmap.recycle();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 硬件 Bitmap 不能作为 inBitmap
+     */
+    private static boolean canReuse(Bitmap.Config config) {
+        return config != null && !(Build.VERSION.SDK_INT >= 26 && config == Bitmap.Config.HARDWARE);
+    }
+
+    private static Bitmap decode(UriSource source, FileDescriptor fd, BitmapFactory.Options options) throws IOException {
+        if (fd != null) {
+            // 普通文件的 fd，decodeFileDescriptor 不会改变读取位置，两次解码可以复用
+            return BitmapFactory.decodeFileDescriptor(fd, null, options);
+        }
+        InputStream is = source.openInputStream();
+        try {
+            return BitmapFactory.decodeStream(is, null, options);
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.pichs.filechooser;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.LinkedList;
+
+/**
+ * 可复用 Bitmap 池，解码时通过 inBitmap 复用内存，减少大块分配和 GC
+ * 池中只放没有人再使用的 Bitmap：解码过程中的中间结果，以及调用方用完后通过 {@link #put(Bitmap)} 归还的
+ * 注意：从 {@link BitmapCache} 中拿到的 Bitmap 还被缓存持有，不要归还到池中
+ */
+@SuppressWarnings("ALL")
+public class BitmapPool {
+
+    private static final BitmapPool INSTANCE = new BitmapPool();
+
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+    private long mMaxBytes = Runtime.getRuntime().maxMemory() / 16;
+    private long mCurrentBytes;
+
+    private BitmapPool() {
+    }
+
+    public static BitmapPool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * 池子的最大字节数，默认为最大堆内存的 1/16，设为 0 相当于关闭
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * 归还不再使用的 Bitmap，不可变的、硬件的、已回收的直接忽略
+     */
+    public void put(@Nullable Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= 26 && bitmap.getConfig() == Bitmap.Config.HARDWARE) {
+            return;
+        }
+        final int size = bitmap.getAllocationByteCount();
+        synchronized (this) {
+            if (size > mMaxBytes / 2) {
+                // 太大的不留，占着整个池子反而更难复用
+                bitmap.recycle();
+                return;
+            }
+            mBitmaps.addFirst(bitmap);
+            mCurrentBytes += size;
+            trimToSize(mMaxBytes);
+        }
+    }
+
+    /**
+     * 取一个能用作 inBitmap 的 Bitmap：格式相同、分配的内存足够，取出后从池中移除
+     *
+     * @return 没有合适的返回 null
+     */
+    @Nullable
+    public synchronized Bitmap getReusable(int width, int height, @NonNull Bitmap.Config config) {
+        final long required = (long) width * height * bytesPerPixel(config);
+        Bitmap best = null;
+        for (Bitmap bitmap : mBitmaps) {
+            if (bitmap.getConfig() != config || bitmap.getAllocationByteCount() < required) {
+                continue;
+            }
+            // 选最小的够用的，避免大块内存被小图占用
+            if (best == null || bitmap.getAllocationByteCount() < best.getAllocationByteCount()) {
+                best = bitmap;
+            }
+        }
+        if (best != null) {
+            mBitmaps.remove(best);
+            mCurrentBytes -= best.getAllocationByteCount();
+        }
+        return best;
+    }
+
+    /**
+     * 清空，回收所有 Bitmap
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * 内存紧张时调用
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (this) {
+                trimToSize(mCurrentBytes / 2);
+            }
+        }
+    }
+
+    public synchronized long getCurrentBytes() {
+        return mCurrentBytes;
+    }
+
+    private void trimToSize(long maxBytes) {
+        // 最后放进来的最先被复用，超出时从最老的开始回收
+        while (mCurrentBytes > maxBytes && !mBitmaps.isEmpty()) {
+            Bitmap eldest = mBitmaps.removeLast();
+            mCurrentBytes -= eldest.getAllocationByteCount();
+            eldest.recycle();
+        }
+    }
+
+    static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        if (Build.VERSION.SDK_INT >= 26 && config == Bitmap.Config.RGBA_F16) {
+            return 8;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,119 @@
+package com.pichs.filechooser;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+
+/**
+ * 多选时每一项的处理结果：Uri、基本信息、识别出的类型，以及按设置解码的 bitmap
+ * 单项处理失败不影响其他项，失败原因见 {@link #getError()}
+ */
+@SuppressWarnings("ALL")
+public final class ChooseResult {
+
+    private final int index;
+    private final Uri uri;
+    private final FileMeta meta;
+    private final String mimeType;
+    private final Bitmap bitmap;
+    private final File compressedFile;
+    private final Throwable error;
+
+    ChooseResult(int index, Uri uri, FileMeta meta, String mimeType, Bitmap bitmap, File compressedFile, Throwable error) {
+        this.index = index;
+        this.uri = uri;
+        this.meta = meta;
+        this.mimeType = mimeType;
+        this.bitmap = bitmap;
+        this.compressedFile = compressedFile;
+        this.error = error;
+    }
+
+    static ChooseResult failed(int index, Uri uri, Throwable error) {
+        return new ChooseResult(index, uri, null, null, null, null, error);
+    }
+
+    /**
+     * 在选择结果中的位置
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    @NonNull
+    public Uri getUri() {
+        return uri;
+    }
+
+    /**
+     * 文件基本信息，处理失败时为 null
+     */
+    @Nullable
+    public FileMeta getMeta() {
+        return meta;
+    }
+
+    /**
+     * 按文件头识别的类型，识别不了时使用 provider 给的类型
+     */
+    @Nullable
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * 是否是能解码的图片
+     */
+    public boolean isImage() {
+        return MimeSniffer.isDecodableImage(mimeType);
+    }
+
+    /**
+     * 设置了 asBitmap 或 asThumbnail 且是图片时返回解码后的 bitmap（或缩略图）
+     */
+    @Nullable
+    public Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    /**
+     * 设置了 compress 且是图片时返回压缩后的文件
+     */
+    @Nullable
+    public File getCompressedFile() {
+        return compressedFile;
+    }
+
+    @Nullable
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * 结果没有交给调用方就被丢弃时释放 bitmap，能复用的放回池子
+     * 内存缓存中的 bitmap 是共享的，不释放
+     */
+    void release() {
+        if (bitmap == null || bitmap.isRecycled() || BitmapCache.get().contains(bitmap)) {
+            return;
+        }
+        if (bitmap.isMutable()) {
+            BitmapPool.get().put(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ChooseResult{index=" + index + ", uri=" + uri + ", mimeType=" + mimeType + ", compressedFile=" + compressedFile + ", error=" + error + '}';
+    }
+}
@@ -0,0 +1,98 @@
+package com.pichs.filechooser;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 选择图片后的压缩参数
+ * new CompressOptions().maxDimension(1920).format(Bitmap.CompressFormat.JPEG).targetBytes(300 * 1024)
+ */
+@SuppressWarnings("ALL")
+public class CompressOptions {
+
+    private int maxDimension = 0;
+    private Bitmap.CompressFormat format = Bitmap.CompressFormat.JPEG;
+    private int quality = 90;
+    private int minQuality = 40;
+    private long targetBytes = 0;
+
+    /**
+     * 长边的最大像素，<= 0 不缩放
+     */
+    public CompressOptions maxDimension(int maxDimension) {
+        this.maxDimension = maxDimension;
+        return this;
+    }
+
+    /**
+     * 输出格式，默认 JPEG；PNG 为无损格式，忽略质量和目标大小
+     */
+    public CompressOptions format(@NonNull Bitmap.CompressFormat format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * 质量，默认 90；设置了目标大小时作为最高质量
+     */
+    public CompressOptions quality(int quality) {
+        this.quality = clamp(quality);
+        return this;
+    }
+
+    /**
+     * 按目标大小查找质量时的最低质量，默认 40，最低质量仍超出目标大小时按最低质量输出
+     */
+    public CompressOptions minQuality(int minQuality) {
+        this.minQuality = clamp(minQuality);
+        return this;
+    }
+
+    /**
+     * 目标大小（字节），在 [minQuality, quality] 之间二分查找不超过目标大小的最高质量，<= 0 不限制
+     */
+    public CompressOptions targetBytes(long targetBytes) {
+        this.targetBytes = targetBytes;
+        return this;
+    }
+
+    public int getMaxDimension() {
+        return maxDimension;
+    }
+
+    public Bitmap.CompressFormat getFormat() {
+        return format;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public int getMinQuality() {
+        return Math.min(minQuality, quality);
+    }
+
+    public long getTargetBytes() {
+        return targetBytes;
+    }
+
+    /**
+     * 副本，处理结果时使用，之后再修改参数不影响正在进行的压缩
+     */
+    CompressOptions copy() {
+        return new CompressOptions().maxDimension(maxDimension).format(format).quality(quality)
+                .minQuality(minQuality).targetBytes(targetBytes);
+    }
+
+    /**
+     * 用于缓存文件名，参数不同结果不同
+     */
+    String toKey() {
+        return maxDimension + "/" + format + "/" + quality + "/" + getMinQuality() + "/" + targetBytes;
+    }
+
+    private static int clamp(int quality) {
+        return Math.max(0, Math.min(100, quality));
+    }
+}
@@ -0,0 +1,259 @@
+package com.pichs.filechooser;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.DisplayMetrics;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+
+/**
+ * 库内的剪裁界面，代替 com.android.camera.action.CROP
+ * 预览只解码屏幕大小的图，确定后用 {@link ImageCropper} 只解码原图中选中的区域，编码一次写入输出文件
+ * 成功返回 RESULT_OK，失败或取消返回 RESULT_CANCELED，失败原因放在 {@link #EXTRA_ERROR}
+ */
+@SuppressWarnings("ALL")
+public class CropActivity extends Activity {
+
+    public static final String EXTRA_SOURCE = "com.pichs.filechooser.extra.SOURCE";
+    public static final String EXTRA_OUTPUT = "com.pichs.filechooser.extra.OUTPUT";
+    public static final String EXTRA_ASPECT_X = "com.pichs.filechooser.extra.ASPECT_X";
+    public static final String EXTRA_ASPECT_Y = "com.pichs.filechooser.extra.ASPECT_Y";
+    public static final String EXTRA_OUTPUT_WIDTH = "com.pichs.filechooser.extra.OUTPUT_WIDTH";
+    public static final String EXTRA_QUALITY = "com.pichs.filechooser.extra.QUALITY";
+    public static final String EXTRA_ERROR = "com.pichs.filechooser.extra.ERROR";
+
+    private CropImageView mCropImageView;
+    private TextView mConfirmView;
+    private TiledImage mImage;
+    private Bitmap mPreview;
+    private boolean mCropping;
+
+    /**
+     * 启动剪裁的 Intent
+     *
+     * @param source      要剪裁的图片
+     * @param output      输出文件（JPEG）
+     * @param aspectX     宽高比，任一 <= 0 时不限制
+     * @param aspectY     宽高比
+     * @param outputWidth 输出宽度，高度按剪裁框比例计算，<= 0 时按原图分辨率输出
+     */
+    @NonNull
+    public static Intent newIntent(@NonNull Context context, @NonNull Uri source, @NonNull File output,
+                                   int aspectX, int aspectY, int outputWidth) {
+        Intent intent = new Intent(context, CropActivity.class);
+        intent.putExtra(EXTRA_SOURCE, source);
+        intent.putExtra(EXTRA_OUTPUT, output.getAbsolutePath());
+        intent.putExtra(EXTRA_ASPECT_X, aspectX);
+        intent.putExtra(EXTRA_ASPECT_Y, aspectY);
+        intent.putExtra(EXTRA_OUTPUT_WIDTH, outputWidth);
+        return intent;
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        final Uri source = getIntent().getParcelableExtra(EXTRA_SOURCE);
+        final String output = getIntent().getStringExtra(EXTRA_OUTPUT);
+        if (source == null || output == null) {
+            finishWithError("source or output is null");
+            return;
+        }
+        setContentView(createContentView());
+        mCropImageView.setAspectRatio(getIntent().getIntExtra(EXTRA_ASPECT_X, 0), getIntent().getIntExtra(EXTRA_ASPECT_Y, 0));
+        loadPreview(source);
+    }
+
+    private View createContentView() {
+        final float density = getResources().getDisplayMetrics().density;
+        final int barHeight = (int) (56 * density);
+        FrameLayout root = new FrameLayout(this);
+        root.setBackgroundColor(Color.BLACK);
+
+        mCropImageView = new CropImageView(this);
+        FrameLayout.LayoutParams imageParams = new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
+        imageParams.bottomMargin = barHeight;
+        root.addView(mCropImageView, imageParams);
+
+        LinearLayout bar = new LinearLayout(this);
+        bar.setOrientation(LinearLayout.HORIZONTAL);
+        TextView cancelView = createButton(getString(R.string.filechooser_crop_cancel));
+        cancelView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                setResult(RESULT_CANCELED);
+                finish();
+            }
+        });
+        mConfirmView = createButton(getString(R.string.filechooser_crop_confirm));
+        mConfirmView.setEnabled(false);
+        mConfirmView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                crop();
+            }
+        });
+        bar.addView(cancelView, new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.MATCH_PARENT, 1));
+        bar.addView(mConfirmView, new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.MATCH_PARENT, 1));
+        root.addView(bar, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, barHeight, Gravity.BOTTOM));
+        return root;
+    }
+
+    private TextView createButton(String text) {
+        TextView view = new TextView(this);
+        view.setText(text);
+        view.setTextColor(Color.WHITE);
+        view.setTextSize(16);
+        view.setGravity(Gravity.CENTER);
+        return view;
+    }
+
+    /**
+     * 后台打开原图（只读头信息）并解码屏幕大小的预览
+     */
+    private void loadPreview(final Uri source) {
+        final DisplayMetrics metrics = getResources().getDisplayMetrics();
+        final Context appContext = getApplicationContext();
+        FileUriAsync.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                TiledImage image = null;
+                Bitmap preview = null;
+                Exception error = null;
+                try {
+                    image = TiledImage.open(appContext, source, Bitmap.Config.ARGB_8888);
+                    preview = image.decodePreview(metrics.widthPixels, metrics.heightPixels);
+                    if (preview == null) {
+                        throw new IllegalStateException("Can't decode " + source);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    error = e;
+                }
+                final TiledImage finalImage = image;
+                final Bitmap finalPreview = preview;
+                final Exception finalError = error;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing() || isDestroyed() || finalError != null) {
+                            if (finalImage != null) {
+                                finalImage.close();
+                            }
+                            if (finalPreview != null) {
+                                finalPreview.recycle();
+                            }
+                            if (finalError != null && !isFinishing()) {
+                                finishWithError(String.valueOf(finalError));
+                            }
+                            return;
+                        }
+                        mImage = finalImage;
+                        mPreview = finalPreview;
+                        mCropImageView.setImageBitmap(finalPreview);
+                        mConfirmView.setEnabled(true);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 把预览上的剪裁框换算到原图坐标，后台剪裁
+     */
+    private void crop() {
+        if (mCropping || mImage == null || mPreview == null) {
+            return;
+        }
+        mCropping = true;
+        mConfirmView.setEnabled(false);
+        final TiledImage image = mImage;
+        // 交给后台线程，剪裁完在后台关闭
+        mImage = null;
+        final File output = new File(getIntent().getStringExtra(EXTRA_OUTPUT));
+        final int quality = getIntent().getIntExtra(EXTRA_QUALITY, ImageCropper.DEFAULT_QUALITY);
+        final int aspectX = getIntent().getIntExtra(EXTRA_ASPECT_X, 0);
+        final int aspectY = getIntent().getIntExtra(EXTRA_ASPECT_Y, 0);
+        final int outputWidth = getIntent().getIntExtra(EXTRA_OUTPUT_WIDTH, 0);
+
+        final float scale = (float) image.getWidth() / mPreview.getWidth();
+        final RectF cropRect = mCropImageView.getCropRect();
+        final Rect rect = new Rect(Math.round(cropRect.left * scale), Math.round(cropRect.top * scale),
+                Math.round(cropRect.right * scale), Math.round(cropRect.bottom * scale));
+        int outWidth = 0;
+        int outHeight = 0;
+        if (outputWidth > 0 && rect.width() > 0 && rect.height() > 0) {
+            outWidth = outputWidth;
+            outHeight = aspectX > 0 && aspectY > 0
+                    ? Math.round((float) outputWidth * aspectY / aspectX)
+                    : Math.round((float) outputWidth * rect.height() / rect.width());
+        }
+        final int finalOutWidth = outWidth;
+        final int finalOutHeight = Math.max(outHeight, finalOutWidth > 0 ? 1 : 0);
+        FileUriAsync.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Exception error = null;
+                try {
+                    ImageCropper.crop(image, rect, finalOutWidth, finalOutHeight, output, Bitmap.CompressFormat.JPEG, quality);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    error = e;
+                } finally {
+                    image.close();
+                }
+                final Exception finalError = error;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCropping = false;
+                        if (finalError != null) {
+                            finishWithError(String.valueOf(finalError));
+                            return;
+                        }
+                        setResult(RESULT_OK, new Intent().setData(Uri.fromFile(output)));
+                        finish();
+                    }
+                });
+            }
+        });
+    }
+
+    private void finishWithError(String error) {
+        Intent data = new Intent();
+        data.putExtra(EXTRA_ERROR, error);
+        setResult(RESULT_CANCELED, data);
+        finish();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mCropImageView != null) {
+            mCropImageView.setImageBitmap(null);
+        }
+        if (mPreview != null) {
+            mPreview.recycle();
+            mPreview = null;
+        }
+        if (mImage != null) {
+            mImage.close();
+            mImage = null;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.pichs.filechooser;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.view.MotionEvent;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 剪裁框，居中显示预览图，拖动框内移动，拖动四个角缩放，设置了宽高比时保持比例
+ */
+@SuppressWarnings("ALL")
+public class CropImageView extends View {
+
+    private static final int DRAG_NONE = 0;
+    private static final int DRAG_MOVE = 1;
+    private static final int DRAG_CORNER = 2;
+
+    private final Paint mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint mMaskPaint = new Paint();
+    private final Paint mFramePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mCornerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Matrix mMatrix = new Matrix();
+    // 图片在 View 中的显示区域
+    private final RectF mImageRect = new RectF();
+    // 剪裁框，View 坐标
+    private final RectF mCropRect = new RectF();
+
+    private final float mTouchSlop;
+    private final float mMinSize;
+    private final float mPadding;
+
+    private Bitmap mBitmap;
+    private float mScale = 1;
+    private int mAspectX;
+    private int mAspectY;
+
+    private int mDragMode = DRAG_NONE;
+    private float mLastX;
+    private float mLastY;
+    private float mAnchorX;
+    private float mAnchorY;
+
+    public CropImageView(Context context) {
+        super(context);
+        final float density = context.getResources().getDisplayMetrics().density;
+        mTouchSlop = 24 * density;
+        mMinSize = 48 * density;
+        mPadding = 16 * density;
+        mMaskPaint.setColor(Color.argb(160, 0, 0, 0));
+        mFramePaint.setColor(Color.WHITE);
+        mFramePaint.setStyle(Paint.Style.STROKE);
+        mFramePaint.setStrokeWidth(1 * density);
+        mCornerPaint.setColor(Color.WHITE);
+        mCornerPaint.setStyle(Paint.Style.FILL);
+    }
+
+    public void setImageBitmap(@Nullable Bitmap bitmap) {
+        mBitmap = bitmap;
+        layoutImage();
+        invalidate();
+    }
+
+    /**
+     * 剪裁框的宽高比，任一 <= 0 时不限制
+     */
+    public void setAspectRatio(int aspectX, int aspectY) {
+        mAspectX = aspectX;
+        mAspectY = aspectY;
+        layoutImage();
+        invalidate();
+    }
+
+    /**
+     * 剪裁区域，预览图的坐标
+     */
+    @NonNull
+    public RectF getCropRect() {
+        return new RectF((mCropRect.left - mImageRect.left) / mScale, (mCropRect.top - mImageRect.top) / mScale,
+                (mCropRect.right - mImageRect.left) / mScale, (mCropRect.bottom - mImageRect.top) / mScale);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        layoutImage();
+    }
+
+    /**
+     * 图片居中缩放显示，剪裁框取图片内最大的符合比例的区域的 80%
+     */
+    private void layoutImage() {
+        if (mBitmap == null || getWidth() <= 0 || getHeight() <= 0) {
+            return;
+        }
+        final float availableWidth = getWidth() - mPadding * 2;
+        final float availableHeight = getHeight() - mPadding * 2;
+        mScale = Math.min(availableWidth / mBitmap.getWidth(), availableHeight / mBitmap.getHeight());
+        final float width = mBitmap.getWidth() * mScale;
+        final float height = mBitmap.getHeight() * mScale;
+        final float left = (getWidth() - width) / 2;
+        final float top = (getHeight() - height) / 2;
+        mImageRect.set(left, top, left + width, top + height);
+        mMatrix.setScale(mScale, mScale);
+        mMatrix.postTranslate(left, top);
+
+        float cropWidth = width * 0.8f;
+        float cropHeight = height * 0.8f;
+        if (hasAspect()) {
+            final float ratio = (float) mAspectX / mAspectY;
+            if (cropWidth / cropHeight > ratio) {
+                cropWidth = cropHeight * ratio;
+            } else {
+                cropHeight = cropWidth / ratio;
+            }
+        }
+        mCropRect.set(mImageRect.centerX() - cropWidth / 2, mImageRect.centerY() - cropHeight / 2,
+                mImageRect.centerX() + cropWidth / 2, mImageRect.centerY() + cropHeight / 2);
+    }
+
+    private boolean hasAspect() {
+        return mAspectX > 0 && mAspectY > 0;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mBitmap == null || mBitmap.isRecycled()) {
+            return;
+        }
+        canvas.drawBitmap(mBitmap, mMatrix, mBitmapPaint);
+        // 框外的遮罩
+        canvas.drawRect(0, 0, getWidth(), mCropRect.top, mMaskPaint);
+        canvas.drawRect(0, mCropRect.bottom, getWidth(), getHeight(), mMaskPaint);
+        canvas.drawRect(0, mCropRect.top, mCropRect.left, mCropRect.bottom, mMaskPaint);
+        canvas.drawRect(mCropRect.right, mCropRect.top, getWidth(), mCropRect.bottom, mMaskPaint);
+        canvas.drawRect(mCropRect, mFramePaint);
+        final float radius = mTouchSlop / 4;
+        canvas.drawCircle(mCropRect.left, mCropRect.top, radius, mCornerPaint);
+        canvas.drawCircle(mCropRect.right, mCropRect.top, radius, mCornerPaint);
+        canvas.drawCircle(mCropRect.left, mCropRect.bottom, radius, mCornerPaint);
+        canvas.drawCircle(mCropRect.right, mCropRect.bottom, radius, mCornerPaint);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (mBitmap == null) {
+            return false;
+        }
+        final float x = event.getX();
+        final float y = event.getY();
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mDragMode = DRAG_NONE;
+                if (near(x, mCropRect.left) && near(y, mCropRect.top)) {
+                    startCornerDrag(mCropRect.right, mCropRect.bottom);
+                } else if (near(x, mCropRect.right) && near(y, mCropRect.top)) {
+                    startCornerDrag(mCropRect.left, mCropRect.bottom);
+                } else if (near(x, mCropRect.left) && near(y, mCropRect.bottom)) {
+                    startCornerDrag(mCropRect.right, mCropRect.top);
+                } else if (near(x, mCropRect.right) && near(y, mCropRect.bottom)) {
+                    startCornerDrag(mCropRect.left, mCropRect.top);
+                } else if (mCropRect.contains(x, y)) {
+                    mDragMode = DRAG_MOVE;
+                }
+                mLastX = x;
+                mLastY = y;
+                return mDragMode != DRAG_NONE;
+            case MotionEvent.ACTION_MOVE:
+                if (mDragMode == DRAG_MOVE) {
+                    moveBy(x - mLastX, y - mLastY);
+                } else if (mDragMode == DRAG_CORNER) {
+                    resizeTo(x, y);
+                }
+                mLastX = x;
+                mLastY = y;
+                invalidate();
+                return true;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                mDragMode = DRAG_NONE;
+                return true;
+            default:
+                return mDragMode != DRAG_NONE;
+        }
+    }
+
+    private boolean near(float a, float b) {
+        return Math.abs(a - b) <= mTouchSlop;
+    }
+
+    /**
+     * 拖动角时，对角固定
+     */
+    private void startCornerDrag(float anchorX, float anchorY) {
+        mDragMode = DRAG_CORNER;
+        mAnchorX = anchorX;
+        mAnchorY = anchorY;
+    }
+
+    private void moveBy(float dx, float dy) {
+        dx = Math.max(mImageRect.left - mCropRect.left, Math.min(dx, mImageRect.right - mCropRect.right));
+        dy = Math.max(mImageRect.top - mCropRect.top, Math.min(dy, mImageRect.bottom - mCropRect.bottom));
+        mCropRect.offset(dx, dy);
+    }
+
+    private void resizeTo(float x, float y) {
+        // 拖动方向：角在对角的哪一侧
+        final boolean toRight = x >= mAnchorX;
+        final boolean toBottom = y >= mAnchorY;
+        final float maxWidth = toRight ? mImageRect.right - mAnchorX : mAnchorX - mImageRect.left;
+        final float maxHeight = toBottom ? mImageRect.bottom - mAnchorY : mAnchorY - mImageRect.top;
+        float width = Math.abs(x - mAnchorX);
+        float height = Math.abs(y - mAnchorY);
+        if (hasAspect()) {
+            final float ratio = (float) mAspectX / mAspectY;
+            width = Math.max(width, height * ratio);
+            width = Math.min(width, Math.min(maxWidth, maxHeight * ratio));
+            width = Math.max(width, Math.min(mMinSize, Math.min(maxWidth, maxHeight * ratio)));
+            height = width / ratio;
+        } else {
+            width = Math.max(Math.min(width, maxWidth), Math.min(mMinSize, maxWidth));
+            height = Math.max(Math.min(height, maxHeight), Math.min(mMinSize, maxHeight));
+        }
+        final float left = toRight ? mAnchorX : mAnchorX - width;
+        final float top = toBottom ? mAnchorY : mAnchorY - height;
+        mCropRect.set(left, top, left + width, top + height);
+    }
+}
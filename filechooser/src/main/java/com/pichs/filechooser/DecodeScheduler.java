@@ -0,0 +1,175 @@
+package com.pichs.filechooser;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * 解码的内存准入控制：每次解码前按只读尺寸得到的结果估算要占用的字节数，
+ * 正在进行的解码占用之和不超过预算时才放行，超出时等待其他解码结束
+ * 预算默认为最大堆内存的 1/4，收到 onTrimMemory 时临时降低，一段时间没有新的信号后恢复
+ * 没有正在进行的解码时总是放行，单张超出预算的图也能解码
+ */
+@SuppressWarnings("ALL")
+public class DecodeScheduler {
+
+    private static final DecodeScheduler INSTANCE = new DecodeScheduler();
+
+    /**
+     * 降低预算后，多久没有新的信号就恢复
+     */
+    private static final long RESTORE_DELAY_MS = 30 * 1000;
+
+    private long mBudgetBytes = Runtime.getRuntime().maxMemory() / 4;
+    private float mTrimFactor = 1f;
+    private long mLastTrimTime;
+    private long mInUseBytes;
+    private int mActiveCount;
+    private volatile boolean mRegistered;
+
+    private DecodeScheduler() {
+    }
+
+    public static DecodeScheduler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * 设置预算（字节）
+     */
+    public synchronized void setBudgetBytes(long budgetBytes) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("budgetBytes <= 0");
+        }
+        mBudgetBytes = budgetBytes;
+        notifyAll();
+    }
+
+    /**
+     * 按最大堆内存的比例设置预算
+     */
+    public void setBudgetFraction(float fraction) {
+        if (fraction <= 0 || fraction > 1) {
+            throw new IllegalArgumentException("fraction must be in (0, 1]");
+        }
+        setBudgetBytes((long) (Runtime.getRuntime().maxMemory() * fraction));
+    }
+
+    /**
+     * 当前生效的预算，已按内存信号降低
+     */
+    public synchronized long getBudgetBytes() {
+        if (mTrimFactor < 1f && SystemClock.elapsedRealtime() - mLastTrimTime > RESTORE_DELAY_MS) {
+            mTrimFactor = 1f;
+        }
+        return (long) (mBudgetBytes * mTrimFactor);
+    }
+
+    public synchronized long getInUseBytes() {
+        return mInUseBytes;
+    }
+
+    /**
+     * 解码前申请，预算不够时阻塞等待，必须与 {@link #release(long)} 成对调用
+     */
+    void acquire(long cost) throws IOException {
+        synchronized (this) {
+            try {
+                while (mActiveCount > 0 && mInUseBytes + cost > getBudgetBytes()) {
+                    // 定时醒来，预算恢复时也能放行
+                    wait(1000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for decode budget");
+            }
+            mInUseBytes += cost;
+            mActiveCount++;
+        }
+    }
+
+    synchronized void release(long cost) {
+        mInUseBytes -= cost;
+        mActiveCount--;
+        notifyAll();
+    }
+
+    /**
+     * 估算解码后的字节数
+     */
+    public static long estimateBytes(int width, int height, @NonNull Bitmap.Config config) {
+        return (long) Math.max(0, width) * Math.max(0, height) * BitmapPool.bytesPerPixel(config);
+    }
+
+    /**
+     * 估算采样解码后的字节数，采样后的尺寸向上取整
+     */
+    public static long estimateBytes(int width, int height, int sampleSize, @NonNull Bitmap.Config config) {
+        final int sample = Math.max(1, sampleSize);
+        return estimateBytes((width + sample - 1) / sample, (height + sample - 1) / sample, config);
+    }
+
+    /**
+     * 注册到 Application，收到内存信号时自动调整预算，只注册一次
+     */
+    public void register(@NonNull Context context) {
+        if (mRegistered) {
+            return;
+        }
+        synchronized (this) {
+            if (mRegistered) {
+                return;
+            }
+            Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+            appContext.registerComponentCallbacks(new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    DecodeScheduler.this.onTrimMemory(level);
+                    OutputBufferPool.onTrimMemory(level);
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {
+                }
+
+                @Override
+                public void onLowMemory() {
+                    onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+                }
+            });
+            mRegistered = true;
+        }
+    }
+
+    /**
+     * 内存信号：运行中内存偏低时预算降到 3/4、1/2，严重不足或进程可能被回收时降到 1/4
+     */
+    public synchronized void onTrimMemory(int level) {
+        final float factor;
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL || level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            factor = 0.25f;
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            factor = 0.5f;
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            factor = 0.75f;
+        } else {
+            // 界面不可见等，与解码无关
+            return;
+        }
+        final long now = SystemClock.elapsedRealtime();
+        if (mTrimFactor < 1f && now - mLastTrimTime <= RESTORE_DELAY_MS) {
+            // 还在降低期内，取更低的
+            mTrimFactor = Math.min(mTrimFactor, factor);
+        } else {
+            mTrimFactor = factor;
+        }
+        mLastTrimTime = now;
+    }
+}
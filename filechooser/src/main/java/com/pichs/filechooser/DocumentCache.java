@@ -0,0 +1,248 @@
+package com.pichs.filechooser;
+
+import android.content.Context;
+import android.net.Uri;
+import android.system.Os;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * cacheDir/documents 下的拷贝缓存
+ * 拷贝出来的文件按 provider 给出的身份（authority + documentId + 大小 + 修改时间）命名，
+ * 同一个文件重复选择时直接返回已有的拷贝，不再重新拷贝
+ * 可选开启内容摘要（SHA-256），身份不同但内容相同的文件通过硬链接共用一份数据
+ */
+@SuppressWarnings("ALL")
+public class DocumentCache {
+
+    private static final String TAG = "DocumentCache";
+
+    static final String DIR_NAME = "documents";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static volatile boolean sContentHashEnabled = false;
+
+    /**
+     * 身份 key -> 拷贝文件
+     */
+    private static final Map<String, File> sIdentityIndex = new ConcurrentHashMap<>();
+
+    /**
+     * 内容摘要 -> 拷贝文件，只在开启摘要时使用，进程内有效
+     */
+    private static final Map<String, File> sContentIndex = new ConcurrentHashMap<>();
+
+    /**
+     * 正在拷贝的 key -> 锁，拷贝期间持有；同一个身份的拷贝串行执行，不同文件互不影响
+     */
+    private static final ConcurrentHashMap<String, Object> sCopying = new ConcurrentHashMap<>();
+
+    private DocumentCache() {
+    }
+
+    /**
+     * 是否在拷贝时计算内容摘要，用来合并内容相同的拷贝
+     * 开启后拷贝不能走 transferTo，会慢一些，默认关闭
+     */
+    public static void setContentHashEnabled(boolean enabled) {
+        sContentHashEnabled = enabled;
+    }
+
+    /**
+     * 清空内存索引，不删除文件
+     */
+    public static void clearIndex() {
+        sIdentityIndex.clear();
+        sContentIndex.clear();
+    }
+
+    /**
+     * 缓存目录
+     */
+    public static File getCacheDir(@NonNull Context context) {
+        return new File(context.getCacheDir(), DIR_NAME);
+    }
+
+    /**
+     * 获取 Uri 在缓存目录中的拷贝，没有就拷贝一份
+     *
+     * @param context  上下文
+     * @param uri      文档 Uri
+     * @param docId    文档 id
+     * @param fileName 显示名称，为空时用 docId
+     * @return 拷贝文件，失败返回 null
+     */
+    @Nullable
+    static File getOrCopy(@NonNull Context context, @NonNull Uri uri, @NonNull String docId, @Nullable String fileName) {
+        final File dir = getCacheDir(context);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        if (fileName == null) {
+            fileName = docId;
+        }
+        final FileMeta meta = FileMeta.get(context, uri);
+        final long size = meta.getSize();
+        if (size < 0) {
+            // 拿不到大小，无法判断是不是同一个文件，按老办法生成新文件
+            File file = FileUriUtils.generateFileName(fileName, dir);
+            if (file != null && copy(context, uri, file, null)) {
+                return file;
+            }
+            return null;
+        }
+        final String key = hashKey(uri.getAuthority() + '/' + docId + '/' + size + '/' + meta.getLastModified());
+        final File target = new File(dir, key + '_' + fileName.replace('/', '_'));
+
+        while (true) {
+            // 命中时直接返回索引中的文件，不 stat 也不写文件；身份来自 FileMeta 的内存缓存（ContentObserver 负责失效），
+            // 被删除的文件已经通过 onFileRemoved 移出索引
+            final File cached = sIdentityIndex.get(key);
+            if (cached != null) {
+                touchAsync(cached);
+                return cached;
+            }
+            final Object lock = new Object();
+            final Object copying;
+            synchronized (lock) {
+                copying = sCopying.putIfAbsent(key, lock);
+                if (copying == null) {
+                    try {
+                        return copyLocked(context, uri, dir, key, target, size);
+                    } finally {
+                        sCopying.remove(key);
+                    }
+                }
+            }
+            // 别的线程正在拷贝同一个文件，等它结束后重新查索引；它失败了就自己拷贝
+            synchronized (copying) {
+            }
+        }
+    }
+
+    /**
+     * 持有这个 key 的锁时执行
+     */
+    private static File copyLocked(Context context, Uri uri, File dir, String key, File target, long size) {
+        // 上次进程留下的拷贝
+        if (target.isFile() && target.length() == size) {
+            target.setLastModified(System.currentTimeMillis());
+            sIdentityIndex.put(key, target);
+            return target;
+        }
+        final File tmp = new File(dir, target.getName() + TMP_SUFFIX);
+        final MessageDigest digest = sContentHashEnabled ? newDigest("SHA-256") : null;
+        if (!copy(context, uri, tmp, digest)) {
+            return null;
+        }
+        final String contentHash = digest == null ? null : hex(digest.digest());
+        if (contentHash != null) {
+            final File same = sContentIndex.get(contentHash);
+            // 内容相同时用硬链接得到按身份命名的文件：下个进程按身份能直接找到，
+            // 删除其中一个名字也不影响另一个
+            if (same != null && same.isFile() && same.length() == tmp.length() && link(same, target)) {
+                tmp.delete();
+                sIdentityIndex.put(key, target);
+                return target;
+            }
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            return null;
+        }
+        if (contentHash != null) {
+            sContentIndex.put(contentHash, target);
+        }
+        sIdentityIndex.put(key, target);
+        return target;
+    }
+
+    /**
+     * 后台更新最近使用时间，{@link FileStorageManager} 按它淘汰
+     */
+    private static void touchAsync(final File file) {
+        try {
+            FileUriAsync.getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    file.setLastModified(System.currentTimeMillis());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 只影响淘汰顺序
+        }
+    }
+
+    /**
+     * 文件被删除后从索引中移除
+     */
+    static void onFileRemoved(File file) {
+        sIdentityIndex.values().remove(file);
+        sContentIndex.values().remove(file);
+    }
+
+    private static boolean link(File existing, File target) {
+        try {
+            target.delete();
+            Os.link(existing.getAbsolutePath(), target.getAbsolutePath());
+            return true;
+        } catch (Exception e) {
+            // 不支持硬链接的文件系统，保留各自的拷贝
+            Log.w(TAG, "link failed: " + target + ", " + e);
+            return false;
+        }
+    }
+
+    private static boolean copy(Context context, Uri uri, File dest, MessageDigest digest) {
+        try {
+            UriFileCopier.copy(context, uri, dest, digest, null, null);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 缓存文件名用的短 key：sha1 的前 16 位十六进制
+     */
+    static String hashKey(String text) {
+        return hex(sha1(text)).substring(0, 16);
+    }
+
+    private static byte[] sha1(String text) {
+        MessageDigest digest = newDigest("SHA-1");
+        if (digest == null) {
+            // 不会发生，SHA-1 是必须支持的算法
+            return Integer.toHexString(text.hashCode()).getBytes();
+        }
+        return digest.digest(text.getBytes());
+    }
+
+    private static String hex(byte[] bytes) {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(digits[(b >> 4) & 0xf]).append(digits[b & 0xf]);
+        }
+        return sb.toString();
+    }
+}
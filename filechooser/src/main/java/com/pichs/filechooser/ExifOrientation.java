@@ -0,0 +1,258 @@
+package com.pichs.filechooser;
+
+import android.content.Context;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 读取 JPEG 的 EXIF 方向，只解析 APP1 段里 IFD0 的 Orientation 标签，不依赖 ExifInterface
+ * 方向值与 EXIF 规范一致（1~8），读不到时为 {@link #NORMAL}
+ */
+@SuppressWarnings("ALL")
+final class ExifOrientation {
+
+    static final int NORMAL = 1;
+    static final int FLIP_HORIZONTAL = 2;
+    static final int ROTATE_180 = 3;
+    static final int FLIP_VERTICAL = 4;
+    static final int TRANSPOSE = 5;
+    static final int ROTATE_90 = 6;
+    static final int TRANSVERSE = 7;
+    static final int ROTATE_270 = 8;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_APP1 = 0xE1;
+
+    private ExifOrientation() {
+    }
+
+    /**
+     * 读取图片的 EXIF 方向，非 JPEG 直接返回 {@link #NORMAL}
+     */
+    static int read(@NonNull Context context, @NonNull Uri uri) {
+        if (!MimeSniffer.MIME_JPEG.equals(MimeSniffer.sniff(context, uri))) {
+            return NORMAL;
+        }
+        InputStream is = null;
+        try {
+            is = context.getContentResolver().openInputStream(uri);
+            return is != null ? read(is) : NORMAL;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return NORMAL;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 从 JPEG 流中读取方向，读到 APP1 或图像数据开始就停止，不会读完整个文件
+     */
+    static int read(@NonNull InputStream is) throws IOException {
+        if (is.read() != 0xFF || is.read() != 0xD8) {
+            return NORMAL;
+        }
+        while (true) {
+            int prefix = is.read();
+            if (prefix != 0xFF) {
+                return NORMAL;
+            }
+            int marker = is.read();
+            while (marker == 0xFF) {
+                // 填充字节
+                marker = is.read();
+            }
+            if (marker < 0 || marker == MARKER_SOS || marker == MARKER_EOI) {
+                return NORMAL;
+            }
+            int length = (readByte(is) << 8) | readByte(is);
+            if (length < 2) {
+                return NORMAL;
+            }
+            if (marker != MARKER_APP1) {
+                skipFully(is, length - 2);
+                continue;
+            }
+            byte[] segment = new byte[length - 2];
+            readFully(is, segment);
+            if (segment.length > 14
+                    && segment[0] == 'E' && segment[1] == 'x' && segment[2] == 'i' && segment[3] == 'f'
+                    && segment[4] == 0 && segment[5] == 0) {
+                return parseTiff(segment, 6);
+            }
+        }
+    }
+
+    /**
+     * 解析 TIFF 头和 IFD0，start 为 TIFF 头在 segment 中的偏移
+     */
+    private static int parseTiff(byte[] data, int start) {
+        final boolean littleEndian;
+        if (data[start] == 'I' && data[start + 1] == 'I') {
+            littleEndian = true;
+        } else if (data[start] == 'M' && data[start + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return NORMAL;
+        }
+        if (readShort(data, start + 2, littleEndian) != 0x2A) {
+            return NORMAL;
+        }
+        int ifd = start + readInt(data, start + 4, littleEndian);
+        if (ifd < start || ifd + 2 > data.length) {
+            return NORMAL;
+        }
+        int count = readShort(data, ifd, littleEndian);
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > data.length) {
+                break;
+            }
+            if (readShort(data, entry, littleEndian) == TAG_ORIENTATION) {
+                // SHORT 类型，值存放在 value 字段的前两个字节
+                int orientation = readShort(data, entry + 8, littleEndian);
+                return orientation >= NORMAL && orientation <= ROTATE_270 ? orientation : NORMAL;
+            }
+        }
+        return NORMAL;
+    }
+
+    /**
+     * 宽高是否互换
+     */
+    static boolean swapsDimensions(int orientation) {
+        return orientation >= TRANSPOSE && orientation <= ROTATE_270;
+    }
+
+    /**
+     * 把原始像素摆正的变换，配合 Bitmap.createBitmap(src, 0, 0, w, h, matrix, filter) 使用
+     */
+    @NonNull
+    static Matrix getMatrix(int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                break;
+        }
+        return matrix;
+    }
+
+    /**
+     * 把摆正后坐标系中的区域换算到原始像素坐标系
+     *
+     * @param rect      摆正后坐标系中的区域
+     * @param rawWidth  原始宽度
+     * @param rawHeight 原始高度
+     */
+    @NonNull
+    static Rect toRawRect(int orientation, @NonNull Rect rect, int rawWidth, int rawHeight) {
+        final int w = rawWidth;
+        final int h = rawHeight;
+        final int l = rect.left;
+        final int t = rect.top;
+        final int r = rect.right;
+        final int b = rect.bottom;
+        switch (orientation) {
+            case FLIP_HORIZONTAL:
+                return new Rect(w - r, t, w - l, b);
+            case ROTATE_180:
+                return new Rect(w - r, h - b, w - l, h - t);
+            case FLIP_VERTICAL:
+                return new Rect(l, h - b, r, h - t);
+            case TRANSPOSE:
+                return new Rect(t, l, b, r);
+            case ROTATE_90:
+                return new Rect(t, h - r, b, h - l);
+            case TRANSVERSE:
+                return new Rect(w - b, h - r, w - t, h - l);
+            case ROTATE_270:
+                return new Rect(w - b, l, w - t, r);
+            default:
+                return new Rect(rect);
+        }
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        int b0 = data[offset] & 0xFF;
+        int b1 = data[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int readInt(byte[] data, int offset, boolean littleEndian) {
+        if (offset + 4 > data.length) {
+            return -1;
+        }
+        int b0 = data[offset] & 0xFF;
+        int b1 = data[offset + 1] & 0xFF;
+        int b2 = data[offset + 2] & 0xFF;
+        int b3 = data[offset + 3] & 0xFF;
+        return littleEndian ? (b3 << 24) | (b2 << 16) | (b1 << 8) | b0 : (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+    }
+
+    private static int readByte(InputStream is) throws IOException {
+        int b = is.read();
+        if (b < 0) {
+            throw new IOException("Unexpected end of stream");
+        }
+        return b;
+    }
+
+    private static void skipFully(InputStream is, long count) throws IOException {
+        while (count > 0) {
+            long skipped = is.skip(count);
+            if (skipped <= 0) {
+                readByte(is);
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static void readFully(InputStream is, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int read = is.read(buffer, offset, buffer.length - offset);
+            if (read < 0) {
+                throw new IOException("Unexpected end of stream");
+            }
+            offset += read;
+        }
+    }
+}
@@ -2,13 +2,15 @@ package com.pichs.filechooser;
 
 import android.app.Activity;
 import android.content.ActivityNotFoundException;
+import android.content.ClipData;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.MediaStore;
 
 
@@ -18,11 +20,15 @@ import androidx.core.content.FileProvider;
 import androidx.fragment.app.Fragment;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
 
 /**
  * // 打开相册，做权限判断
@@ -40,6 +46,8 @@ public class FileChooser {
     private Map<Activity, FileChooserBuilder> mActivityFileChooserBuilderMap = new WeakHashMap<>();
     private Map<Fragment, FileChooserBuilder> mFragmentFileChooserBuilderMap = new WeakHashMap<>();
 
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
     private FileChooser() {
     }
 
@@ -110,15 +118,35 @@ public class FileChooser {
         void onCallBack(Uri uri, Bitmap bitmap, String message);
     }
 
+    /**
+     * 多选回调，results 与选择顺序一致，失败时为空列表
+     */
+    public interface OnMultiChooseCallBack {
+        void onCallBack(List<ChooseResult> results, String message);
+    }
+
+    /**
+     * 流式多选回调，在开始处理前回调，之后从 stream 中逐项取结果
+     */
+    public interface OnResultStreamCallBack {
+        void onCallBack(ResultStream stream, String message);
+    }
+
+    /**
+     * 分块预览回调，image 由调用方负责 close，失败时为 null
+     */
+    public interface OnTiledImageCallBack {
+        void onCallBack(Uri uri, TiledImage image, String message);
+    }
+
     public static class FileChooserBuilder {
 
-        private static final String SUFFIX_FILE_NAME_CAMERA = "_CAMERA_IMG.jpg";
-        private static final String SUFFIX_FILE_NAME_CROP = "_CROP_IMG.jpg";
+        static final String SUFFIX_FILE_NAME_CAMERA = "_CAMERA_IMG.jpg";
+        static final String SUFFIX_FILE_NAME_CROP = "_CROP_IMG.jpg";
         private static final int FILE_CHOOSER_GALLERY_REQUEST_CODE = 102;
         private static final int FILE_CHOOSER_CAMERA_REQUEST_CODE = 103;
         private static final int FILE_CHOOSER_CROP_REQUEST_CODE = 104;
         private static final int FILE_CHOOSER_FILE_REQUEST_CODE = 105;
-        private final static List<String> JEPG_SUFFIX_LIST = Arrays.asList("jpg", "png", "jpeg");
         // 0 代表activity请求，其他表示fragment
         private int type;
         private int chooseType = 0;
@@ -131,12 +159,28 @@ public class FileChooser {
         private int chooser_requestCode_crop = FILE_CHOOSER_CROP_REQUEST_CODE;
         private int chooser_requestCode_file = FILE_CHOOSER_FILE_REQUEST_CODE;
         private OnFileChooseCallBack mFileChooseCallBack;
+        private OnTiledImageCallBack mTiledImageCallBack;
+        private OnMultiChooseCallBack mMultiChooseCallBack;
+        private int mMaxParallelism = FileUriAsync.POOL_SIZE;
+        private OnResultStreamCallBack mStreamCallBack;
+        private int mStreamCapacity;
         private Uri mCameraOutputUri;
         private File mCropFile;
         private boolean asBitmap = false;
+        private int mBitmapMaxWidth = 0;
+        private int mBitmapMaxHeight = 0;
+        private Bitmap.Config mBitmapConfig;
+        private boolean mMemoryCache = false;
+        private boolean mHardwareBitmap = false;
+        private CompressOptions mCompressOptions;
+        private int mThumbnailSize = 0;
         private boolean isCrop = false;
         private int mCropWidth = 200;
+        private int mCropAspectX = 1;
+        private int mCropAspectY = 1;
+        private boolean mSystemCrop = false;
         private String authority;
+        private Executor mExecutor;
 
         public FileChooserBuilder(Activity activity) {
             this.type = 0;
@@ -170,14 +214,33 @@ public class FileChooser {
         }
 
         /**
-         * @param width 剪裁宽度，默认200，正方形，可自己设置（这个只支持正方形剪裁）
-         *              有其他剪裁功能请自行解决
+         * @param width 剪裁输出的宽度，默认200，高度按 {@link #cropAspect(int, int)} 的比例计算
+         *              <= 0 时按原图分辨率输出（系统剪裁不支持）
          */
         public FileChooserBuilder cropWidth(int width) {
             this.mCropWidth = width;
             return this;
         }
 
+        /**
+         * 剪裁框的宽高比，默认 1:1，任一 <= 0 时不限制比例
+         * 系统剪裁只支持正方形，此设置仅对库内剪裁生效
+         */
+        public FileChooserBuilder cropAspect(int aspectX, int aspectY) {
+            this.mCropAspectX = aspectX;
+            this.mCropAspectY = aspectY;
+            return this;
+        }
+
+        /**
+         * 使用系统的 com.android.camera.action.CROP 剪裁，默认使用库内的 {@link CropActivity}
+         * 部分手机不支持系统剪裁
+         */
+        public FileChooserBuilder systemCrop(boolean systemCrop) {
+            this.mSystemCrop = systemCrop;
+            return this;
+        }
+
         /**
          * 是否作为bitmap返回，调用此方法，则会返回bitmap
          */
@@ -186,6 +249,105 @@ public class FileChooser {
             return this;
         }
 
+        /**
+         * 作为bitmap返回，并限制bitmap的最大尺寸（保持宽高比），大图会先采样再缩放，避免OOM
+         *
+         * @param maxWidth  最大宽度，<= 0 不限制
+         * @param maxHeight 最大高度，<= 0 不限制
+         */
+        public FileChooserBuilder asBitmap(int maxWidth, int maxHeight) {
+            asBitmap = true;
+            mBitmapMaxWidth = maxWidth;
+            mBitmapMaxHeight = maxHeight;
+            return this;
+        }
+
+        /**
+         * 图片结果返回缩略图作为bitmap，代替完整解码，用于选择后立即显示预览
+         * 优先使用系统缩略图（10.0 及以上 loadThumbnail，以下 MediaStore 缩略图），没有时采样解码，结果缓存在磁盘上，
+         * 见 {@link ThumbnailLoader}；设置了 compress 时仍会等压缩完成再回调
+         *
+         * @param size 缩略图最长边，<= 0 时不使用缩略图
+         */
+        public FileChooserBuilder asThumbnail(int size) {
+            mThumbnailSize = size;
+            return this;
+        }
+
+        /**
+         * 返回的bitmap的像素格式，默认 ARGB_8888，不需要透明度时可用 RGB_565 节省一半内存
+         */
+        public FileChooserBuilder bitmapConfig(Bitmap.Config config) {
+            mBitmapConfig = config;
+            return this;
+        }
+
+        /**
+         * 多选模式（相册、文件），所有选中项处理完后按选择顺序一起回调，在主线程回调
+         * 需要边处理边使用时见 {@link #asStream(int, OnResultStreamCallBack)}
+         * 每一项的信息查询、类型识别、解码（asBitmap）在后台并行处理，不支持剪裁
+         */
+        public FileChooserBuilder multiple(@NonNull OnMultiChooseCallBack callBack) {
+            mMultiChooseCallBack = callBack;
+            return this;
+        }
+
+        /**
+         * 流式多选（相册、文件），选择完成后立即回调 {@link ResultStream}，每处理完一项就可以取走，不需要等全部完成
+         *
+         * @param capacity 处理完还没取走的最大数量，达到后暂停处理，直到调用方取走
+         */
+        public FileChooserBuilder asStream(int capacity, @NonNull OnResultStreamCallBack callBack) {
+            mStreamCapacity = Math.max(1, capacity);
+            mStreamCallBack = callBack;
+            return this;
+        }
+
+        /**
+         * 多选时同时处理的最大数量，默认与 {@link FileUriAsync#getExecutor()} 的线程数相同
+         */
+        public FileChooserBuilder maxParallelism(int maxParallelism) {
+            mMaxParallelism = Math.max(1, maxParallelism);
+            return this;
+        }
+
+        /**
+         * 图片结果以 {@link TiledImage} 分块预览返回，用于超大图，代替 bitmap，在主线程回调
+         * 图片之外的文件仍然通过 {@link #listener(OnFileChooseCallBack)} 返回
+         */
+        public FileChooserBuilder asTiledImage(@NonNull OnTiledImageCallBack callBack) {
+            mTiledImageCallBack = callBack;
+            return this;
+        }
+
+        /**
+         * 9.0 及以上返回 HARDWARE bitmap，像素存放在显存中不占 Java 堆，只能用于显示，不能读写像素
+         * 9.0 以下此设置无效
+         */
+        public FileChooserBuilder hardwareBitmap(boolean enable) {
+            mHardwareBitmap = enable;
+            return this;
+        }
+
+        /**
+         * 是否使用进程内的 {@link BitmapCache} 缓存返回的bitmap，同一张图再次选择时不需要重新解码
+         * 开启后返回的bitmap可能被多处共享，不要 recycle
+         */
+        public FileChooserBuilder memoryCache(boolean enable) {
+            mMemoryCache = enable;
+            return this;
+        }
+
+        /**
+         * 选择图片后在后台压缩（尺寸、格式、目标大小），回调的 Uri 换成压缩后文件的 file:// Uri
+         * 压缩结果写在 {@link ImageCompressor#getCacheDir(Context)} 下，由 {@link FileStorageManager} 清理
+         * 多选时见 {@link ChooseResult#getCompressedFile()}；为 null 时不压缩
+         */
+        public FileChooserBuilder compress(@Nullable CompressOptions options) {
+            mCompressOptions = options;
+            return this;
+        }
+
         /**
          * 设置目的：请求码，正常可以不设置，如果和你的其他功能的请求吗有冲突，可用此方法重新设置。
          * 1、相册的请求码 -- 默认：102
@@ -239,7 +401,7 @@ public class FileChooser {
 
         /**
          * 剪裁文件路径 全路径 ，带后缀的/xxx/xxx/xxx.jpg
-         * 不能为cache私有路径... 必须为公有路径，或者外置卡路径
+         * 使用系统剪裁时不能为cache私有路径... 必须为公有路径，或者外置卡路径
          * 原因：系统不能访问和写入你的app的私有路径
          */
         public FileChooserBuilder cropOutputFile(File file) {
@@ -262,17 +424,35 @@ public class FileChooser {
 
         /**
          * 重置一些不传参的变量
-         * isCrop，asBitmap 等
+         * isCrop，asBitmap，multiple，asStream 等
          * 无连续切换（剪裁和非剪裁）状态的特殊需求，此方法不需要使用
          */
         public FileChooserBuilder reset() {
             asBitmap = false;
             isCrop = false;
+            mBitmapMaxWidth = 0;
+            mBitmapMaxHeight = 0;
+            mBitmapConfig = null;
+            mHardwareBitmap = false;
+            mThumbnailSize = 0;
+            mCompressOptions = null;
+            // 多选、流式多选也要清掉，否则之后的单选仍按多选处理
+            mMultiChooseCallBack = null;
+            mStreamCallBack = null;
+            mStreamCapacity = 0;
+            return this;
+        }
+
+        /**
+         * 设置处理结果（解析、解码、保存）用的线程池，默认使用 {@link FileUriAsync#getExecutor()}
+         */
+        public FileChooserBuilder executor(Executor executor) {
+            this.mExecutor = executor;
             return this;
         }
 
         /**
-         * 设置监听事件，用来接收返回结果
+         * 设置监听事件，用来接收返回结果，在主线程回调
          *
          * @param callBack 返回结果监听对象
          */
@@ -321,19 +501,19 @@ public class FileChooser {
         /**
          * 进行剪裁
          */
-        private void startCropPhoto(Uri uri) {
+        private void startCropPhoto(Options options, Uri uri, String srcPath) {
             if (uri == null) {
                 return;
             }
             try {
-                if (mCropFile == null) {
-                    mCropFile = new File(getCropFileDir(), System.currentTimeMillis() + SUFFIX_FILE_NAME_CROP);
-                }
-                final Intent intent = getCropImageIntent(uri, mCropWidth, mCropFile);
+                final Intent intent = options.systemCrop
+                        ? getCropImageIntent(uri, srcPath, options.cropWidth, options.cropFile)
+                        : CropActivity.newIntent(mContextWeakReference.get(), uri, options.cropFile,
+                        options.cropAspectX, options.cropAspectY, options.cropWidth);
                 if (type == 0) {
-                    mActivityWeakReference.get().startActivityForResult(intent, chooser_requestCode_crop);
+                    mActivityWeakReference.get().startActivityForResult(intent, options.cropRequestCode);
                 } else {
-                    mFragmentWeakReference.get().startActivityForResult(intent, chooser_requestCode_crop);
+                    mFragmentWeakReference.get().startActivityForResult(intent, options.cropRequestCode);
                 }
             } catch (Exception e) {
                 e.printStackTrace();
@@ -346,8 +526,17 @@ public class FileChooser {
         private void openGallery() {
             try {
                 //调用相册
-                Intent intent = new Intent(Intent.ACTION_PICK,
-                        MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
+                Intent intent;
+                if (isMultiple()) {
+                    // 大部分相册的 ACTION_PICK 不支持多选
+                    intent = new Intent(Intent.ACTION_GET_CONTENT);
+                    intent.setType("image/*");
+                    intent.addCategory(Intent.CATEGORY_OPENABLE);
+                    intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+                } else {
+                    intent = new Intent(Intent.ACTION_PICK,
+                            MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
+                }
                 if (type == 0) {
                     mActivityWeakReference.get().startActivityForResult(intent, chooser_requestCode_gallery);
                 } else {
@@ -392,6 +581,9 @@ public class FileChooser {
             }
             intent.setType("*/*");
             intent.addCategory(Intent.CATEGORY_OPENABLE);
+            if (isMultiple()) {
+                intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+            }
             if (type == 0) {
                 mActivityWeakReference.get().startActivityForResult(intent, chooser_requestCode_file);
             } else {
@@ -401,137 +593,489 @@ public class FileChooser {
 
         /**
          * 返回结果的处理
+         * 解析、解码、保存都在后台线程执行，回调在主线程；回调时 Activity/Fragment 已经销毁则丢弃结果
          */
-        public void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
-            if (requestCode == chooser_requestCode_gallery) {
+        public void onActivityResult(final int requestCode, int resultCode, @Nullable final Intent data) {
+            if (requestCode != chooser_requestCode_gallery && requestCode != chooser_requestCode_camera
+                    && requestCode != chooser_requestCode_file && requestCode != chooser_requestCode_crop) {
+                return;
+            }
+            final Context context = mContextWeakReference.get();
+            if (context == null) {
+                return;
+            }
+            // 使用 ApplicationContext，后台任务不持有 Activity
+            final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+            // 多张图并行解码时按内存信号调整预算
+            DecodeScheduler.get().register(appContext);
+            // 剪裁输出文件在主线程确定，后台只读快照，之后再修改设置不影响这次的结果
+            if (isCrop && mCropFile == null) {
+                mCropFile = new File(getCropFileDir(), System.currentTimeMillis() + SUFFIX_FILE_NAME_CROP);
+            }
+            final Options options = new Options(this);
+            options.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handleResult(appContext, options, requestCode, data);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        if (options.multiple && requestCode != options.cameraRequestCode && requestCode != options.cropRequestCode) {
+                            deliverMultipleFailed(options, "failed: " + e);
+                        } else {
+                            deliver(null, null, "failed: " + e);
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * 后台线程执行
+         */
+        private void handleResult(Context context, Options options, int requestCode, @Nullable Intent data) {
+            if (options.multiple && (requestCode == options.galleryRequestCode || requestCode == options.fileRequestCode)) {
+                handleMultipleResult(context, options, getResultUris(data));
+                return;
+            }
+            if (requestCode == options.galleryRequestCode) {
                 // 相册
                 if (data != null) {
                     Uri uri = data.getData();
                     if (uri != null) {
-                        if (isCrop) {
-                            startCropPhoto(uri);
+                        if (options.crop) {
+                            postCrop(context, options, uri);
                             return;
                         }
-                        if (mFileChooseCallBack != null) {
-                            Bitmap bitmap = null;
-                            if (asBitmap) {
-                                try {
-                                    bitmap = BitmapFactory.decodeFile(FileUriUtils.getFileRealPath(mContextWeakReference.get(), uri));
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                }
-                            }
-                            mFileChooseCallBack.onCallBack(uri, bitmap, "success");
-                        }
+                        deliverImage(context, options, uri, uri);
                     } else {
                         //部分手机可能直接存放在bundle中
                         if (data.hasExtra("data")) {
                             Bitmap bitmap = data.getParcelableExtra("data");
-                            Uri outputUri = FileUriUtils.saveBitmapAndReturnUri(mContextWeakReference.get(), bitmap, System.currentTimeMillis() + SUFFIX_FILE_NAME_CAMERA);
-                            if (isCrop) {
-                                startCropPhoto(outputUri);
+                            Uri outputUri = saveDataBitmap(context, bitmap);
+                            if (options.crop) {
+                                postCrop(context, options, outputUri);
                                 return;
                             }
-                            if (mFileChooseCallBack != null) {
-                                mFileChooseCallBack.onCallBack(outputUri, bitmap, "success");
-                            }
-                        } else if (mFileChooseCallBack != null) {
-                            mFileChooseCallBack.onCallBack(null, null, "failed: Can't get file from Intent(:data)");
+                            deliver(outputUri, bitmap, "success");
+                        } else {
+                            deliver(null, null, "failed: Can't get file from Intent(:data)");
                         }
                     }
                 }
-            } else if (requestCode == chooser_requestCode_camera) {
+            } else if (requestCode == options.cameraRequestCode) {
                 // 相机
                 if (data != null && data.hasExtra("data")) {
                     Bitmap bitmap = data.getParcelableExtra("data");
                     // 创建bitmap
-                    Uri outputUri = FileUriUtils.saveBitmapAndReturnUri(mContextWeakReference.get(), bitmap, System.currentTimeMillis() + SUFFIX_FILE_NAME_CAMERA);
-                    if (isCrop) {
-                        startCropPhoto(outputUri);
+                    Uri outputUri = saveDataBitmap(context, bitmap);
+                    if (options.crop) {
+                        postCrop(context, options, outputUri);
                         return;
                     }
-                    if (mFileChooseCallBack != null) {
-                        mFileChooseCallBack.onCallBack(outputUri, bitmap, "success");
-                    }
+                    deliver(outputUri, bitmap, "success");
                 } else {
-                    if (isCrop) {
-                        startCropPhoto(mCameraOutputUri);
-                        return;
+                    final Uri cameraOutputUri = options.cameraOutputUri;
+                    // 拍照输出文件会被复用，内容变了但 Uri 不变
+                    if (cameraOutputUri != null) {
+                        BitmapCache.get().remove(cameraOutputUri);
                     }
-                    if (mFileChooseCallBack != null) {
-                        Bitmap bitmap = null;
-                        if (asBitmap) {
-                            try {
-                                bitmap = BitmapFactory.decodeFile(FileUriUtils.getFileRealPath(mContextWeakReference.get(), mCameraOutputUri));
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                        }
-                        mFileChooseCallBack.onCallBack(mCameraOutputUri, bitmap, "success");
+                    if (options.crop) {
+                        postCrop(context, options, cameraOutputUri);
+                        return;
                     }
+                    deliverImage(context, options, cameraOutputUri, cameraOutputUri);
                 }
-            } else if (requestCode == chooser_requestCode_file) {
+            } else if (requestCode == options.fileRequestCode) {
                 // 文件系统
                 if (data != null) {
                     Uri uri = data.getData();
                     if (uri == null) {
-                        if (mFileChooseCallBack != null) {
-                            mFileChooseCallBack.onCallBack(null, null, "failed: Uri is null");
-                        }
+                        deliver(null, null, "failed: Uri is null");
                         return;
                     }
 
                     // 需要判断是否是图片
-                    String fileRealPath = FileUriUtils.getFileRealPath(mContextWeakReference.get(), uri);
-                    boolean isImageFile = false;
-                    if (fileRealPath != null) {
-                        // 如果后缀是jpg，jpeg，png这三种格式则是图片
-                        String suffix = fileRealPath.substring(fileRealPath.lastIndexOf(".") + 1);
-                        isImageFile = JEPG_SUFFIX_LIST.contains(suffix);
+                    // 读文件头判断是否是能解码的图片，不依赖后缀，也不需要解析真实路径
+                    String mimeType = MimeSniffer.sniff(context, uri);
+                    if (mimeType == null) {
+                        mimeType = FileUriUtils.getFileMeta(context, uri).getMimeType();
                     }
+                    boolean isImageFile = MimeSniffer.isDecodableImage(mimeType);
 
-                    if (isCrop) {
+                    if (options.crop) {
                         if (isImageFile) {
-                            startCropPhoto(uri);
+                            postCrop(context, options, uri);
                             return;
                         }
-                        mFileChooseCallBack.onCallBack(null, null, "failed: Can not crop a file which its type is not jpeg. please choose a jpeg file and try again");
+                        deliver(null, null, "failed: Can not crop a file which is not an image. please choose an image file and try again");
                         return;
                     }
 
-                    if (mFileChooseCallBack != null) {
-                        if (isImageFile) {
-                            Bitmap bitmap = null;
-                            if (asBitmap) {
-                                try {
-                                    bitmap = BitmapFactory.decodeFile(FileUriUtils.getFileRealPath(mContextWeakReference.get(), uri));
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                }
-                            }
-                            mFileChooseCallBack.onCallBack(uri, bitmap, "success");
-                        } else {
-                            mFileChooseCallBack.onCallBack(uri, null, "success");
-                        }
+                    if (isImageFile) {
+                        deliverImage(context, options, uri, uri);
+                    } else {
+                        deliver(uri, null, "success");
                     }
                 }
-            } else if (requestCode == chooser_requestCode_crop) {
+            } else if (requestCode == options.cropRequestCode) {
                 // 剪裁
-                if (mCropFile != null) {
+                final File cropFile = options.cropFile;
+                if (cropFile == null || !cropFile.exists() || cropFile.length() == 0) {
+                    deliver(null, null, "failed: crop canceled");
+                } else {
                     // 返回CropUri
-                    if (mFileChooseCallBack != null) {
-                        Uri outputUri = FileUriUtils.getUri(mContextWeakReference.get(),ContentType.IMAGE, mCropFile);
-                        Bitmap bitmap = null;
-                        if (asBitmap) {
-                            try {
-                                bitmap = BitmapFactory.decodeFile(mCropFile.getAbsolutePath());
-                            } catch (Exception e) {
-                                e.printStackTrace();
+                    Uri outputUri = FileUriUtils.getUri(context, ContentType.IMAGE, cropFile);
+                    Uri cropUri = Uri.fromFile(cropFile);
+                    // 剪裁输出文件可能被复用，内容变了但 Uri 不变
+                    BitmapCache.get().remove(cropUri);
+                    deliverImage(context, options, outputUri, cropUri);
+                }
+            }
+        }
+
+        /**
+         * 保存部分相机/相册直接放在 Intent(:data) 中的 bitmap，后台线程执行
+         * 与原来的输出保持一致，按 JPEG 100 保存
+         */
+        private Uri saveDataBitmap(Context context, Bitmap bitmap) {
+            return FileUriUtils.saveBitmapAndReturnUri(context, bitmap, System.currentTimeMillis() + SUFFIX_FILE_NAME_CAMERA,
+                    Bitmap.CompressFormat.JPEG, 100, false);
+        }
+
+        private boolean isMultiple() {
+            return mMultiChooseCallBack != null || mStreamCallBack != null;
+        }
+
+        /**
+         * 多选结果在 ClipData 中，只选了一个时部分应用只放在 data 中
+         */
+        private List<Uri> getResultUris(@Nullable Intent data) {
+            List<Uri> uris = new ArrayList<>();
+            if (data == null) {
+                return uris;
+            }
+            ClipData clipData = data.getClipData();
+            if (clipData != null) {
+                for (int i = 0; i < clipData.getItemCount(); i++) {
+                    Uri uri = clipData.getItemAt(i).getUri();
+                    if (uri != null) {
+                        uris.add(uri);
+                    }
+                }
+            }
+            if (uris.isEmpty() && data.getData() != null) {
+                uris.add(data.getData());
+            }
+            return uris;
+        }
+
+        /**
+         * 多选：并行处理每一项，全部完成后按选择顺序回调
+         */
+        private void handleMultipleResult(final Context context, final Options options, List<Uri> uris) {
+            if (uris.isEmpty()) {
+                deliverMultipleFailed(options, "failed: Can't get file from Intent");
+                return;
+            }
+            final Executor executor = options.executor;
+            final BatchProcessor.ItemProcessor itemProcessor = new BatchProcessor.ItemProcessor() {
+                @Override
+                public ChooseResult process(int index, Uri uri) {
+                    return processItem(context, options, index, uri);
+                }
+            };
+            if (options.stream) {
+                final ResultStream stream = new ResultStream(uris.size(), options.streamCapacity);
+                BatchProcessor processor = new BatchProcessor(executor, uris, options.maxParallelism, itemProcessor,
+                        new BatchProcessor.Listener() {
+                            @Override
+                            public void onItem(ChooseResult result) {
+                                stream.onItem(result);
                             }
-                        }
-                        mFileChooseCallBack.onCallBack(outputUri, bitmap, "success");
+
+                            @Override
+                            public void onComplete(ChooseResult[] results) {
+                                stream.onComplete();
+                            }
+                        });
+                stream.attach(processor);
+                deliverStream(stream, "success");
+                processor.start();
+                return;
+            }
+            new BatchProcessor(executor, uris, options.maxParallelism, itemProcessor, new BatchProcessor.Listener() {
+                @Override
+                public void onItem(ChooseResult result) {
+                }
+
+                @Override
+                public void onComplete(ChooseResult[] results) {
+                    deliverMultiple(Arrays.asList(results), "success");
+                }
+            }).start();
+        }
+
+        /**
+         * 多选整体失败
+         */
+        private void deliverMultipleFailed(Options options, String message) {
+            if (options.stream) {
+                ResultStream stream = new ResultStream(0, 1);
+                stream.onError(new IllegalStateException(message));
+                deliverStream(stream, message);
+            } else {
+                deliverMultiple(Collections.<ChooseResult>emptyList(), message);
+            }
+        }
+
+        /**
+         * 回到主线程回调流，没人接收时取消
+         */
+        private void deliverStream(final ResultStream stream, final String message) {
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isHostAlive() && mStreamCallBack != null) {
+                        mStreamCallBack.onCallBack(stream, message);
+                    } else {
+                        stream.cancel();
+                    }
+                }
+            });
+        }
+
+        /**
+         * 处理多选中的一项：信息查询、类型识别，按设置压缩、解码，后台线程执行
+         */
+        private ChooseResult processItem(Context context, Options options, int index, Uri uri) {
+            FileMeta meta = FileUriUtils.getFileMeta(context, uri);
+            String mimeType = MimeSniffer.sniff(context, uri);
+            if (mimeType == null) {
+                mimeType = meta.getMimeType();
+            }
+            final boolean isImage = MimeSniffer.isDecodableImage(mimeType);
+            Bitmap bitmap = null;
+            File compressedFile = null;
+            Throwable error = null;
+            try {
+                if (isImage && options.compressOptions != null) {
+                    compressedFile = ImageCompressor.compress(context, uri, options.compressOptions);
+                }
+                if (isImage && options.thumbnailSize > 0) {
+                    bitmap = ThumbnailLoader.load(context, uri, options.thumbnailSize);
+                } else if (isImage && options.asBitmap) {
+                    bitmap = decodeBitmap(context, options, uri);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                error = e;
+            }
+            return new ChooseResult(index, uri, meta, mimeType, bitmap, compressedFile, error);
+        }
+
+        /**
+         * 回到主线程回调多选结果
+         */
+        private void deliverMultiple(final List<ChooseResult> results, final String message) {
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isHostAlive() && mMultiChooseCallBack != null) {
+                        mMultiChooseCallBack.onCallBack(results, message);
+                    }
+                }
+            });
+        }
+
+        /**
+         * 图片结果，按设置返回分块预览或bitmap
+         *
+         * @param uri       返回给调用方的 Uri
+         * @param decodeUri 用来解码的 Uri
+         */
+        private void deliverImage(Context context, Options options, Uri uri, Uri decodeUri) {
+            if (options.tiled) {
+                TiledImage image = null;
+                String message = "success";
+                try {
+                    image = TiledImage.open(context, decodeUri, options.bitmapConfig);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    message = "failed: " + e;
+                }
+                deliverTiledImage(uri, image, message);
+                return;
+            }
+            if (options.compressOptions != null) {
+                try {
+                    uri = Uri.fromFile(ImageCompressor.compress(context, decodeUri, options.compressOptions));
+                } catch (Exception e) {
+                    // 压缩失败仍返回原图，原图本身是可用的结果
+                    e.printStackTrace();
+                }
+            }
+            Bitmap bitmap = null;
+            if (options.thumbnailSize > 0 || options.asBitmap) {
+                try {
+                    bitmap = options.thumbnailSize > 0
+                            ? ThumbnailLoader.load(context, decodeUri, options.thumbnailSize)
+                            : decodeBitmap(context, options, decodeUri);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            deliver(uri, bitmap, "success");
+        }
+
+        /**
+         * 回到主线程回调分块预览，没人接收时关闭
+         */
+        private void deliverTiledImage(final Uri uri, final TiledImage image, final String message) {
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isHostAlive() && mTiledImageCallBack != null) {
+                        mTiledImageCallBack.onCallBack(uri, image, message);
+                    } else if (image != null) {
+                        image.close();
                     }
                 }
+            });
+        }
+
+        /**
+         * 回到主线程回调结果
+         */
+        private void deliver(final Uri uri, final Bitmap bitmap, final String message) {
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isHostAlive()) {
+                        return;
+                    }
+                    if (mFileChooseCallBack != null) {
+                        mFileChooseCallBack.onCallBack(uri, bitmap, message);
+                    }
+                }
+            });
+        }
+
+        /**
+         * 在后台清理剪裁输出文件、解析源路径，再回到主线程启动剪裁
+         * 输出文件在主线程创建（见 {@link #onActivityResult}），这里只使用快照中的
+         */
+        private void postCrop(Context context, final Options options, final Uri uri) {
+            if (options.cropFile.exists()) {
+                // 复用的输出文件，删掉上次的结果，剪裁取消时不会误返回旧图
+                options.cropFile.delete();
+            }
+            // 7.0 以下系统剪裁需要 file:// 的源
+            final String srcPath = options.systemCrop && Build.VERSION.SDK_INT < 24 && uri != null
+                    ? FileUriUtils.getFileRealPath(context, uri) : null;
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isHostAlive()) {
+                        startCropPhoto(options, uri, srcPath);
+                    }
+                }
+            });
+        }
+
+        /**
+         * 发起请求的 Activity/Fragment 是否还在
+         */
+        private boolean isHostAlive() {
+            if (type == 0) {
+                Activity activity = mActivityWeakReference.get();
+                return activity != null && !activity.isFinishing() && !activity.isDestroyed();
+            }
+            Fragment fragment = mFragmentWeakReference.get();
+            return fragment != null && fragment.isAdded();
+        }
+
+        /**
+         * 直接从 Uri 解码，不需要真实路径，按 asBitmap(maxWidth, maxHeight) 设置的尺寸采样
+         */
+        private Bitmap decodeBitmap(Context context, Options options, Uri uri) throws IOException {
+            final Bitmap.Config config = options.bitmapConfig;
+            if (!options.memoryCache) {
+                return BitmapDecoder.decode(context, uri, options.bitmapMaxWidth, options.bitmapMaxHeight, config);
+            }
+            BitmapCache cache = BitmapCache.get();
+            cache.register(context);
+            Bitmap bitmap = cache.get(uri, options.bitmapMaxWidth, options.bitmapMaxHeight, config);
+            if (bitmap == null) {
+                bitmap = BitmapDecoder.decode(context, uri, options.bitmapMaxWidth, options.bitmapMaxHeight, config);
+                if (bitmap != null) {
+                    cache.put(uri, options.bitmapMaxWidth, options.bitmapMaxHeight, config, bitmap);
+                }
+            }
+            return bitmap;
+        }
+
+        private Bitmap.Config getBitmapConfig() {
+            if (mHardwareBitmap && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                return Bitmap.Config.HARDWARE;
+            }
+            return mBitmapConfig;
+        }
+
+        /**
+         * 一次结果处理用到的设置的快照，在主线程创建，后台线程只读这里的值
+         */
+        private static final class Options {
+            final int galleryRequestCode;
+            final int cameraRequestCode;
+            final int cropRequestCode;
+            final int fileRequestCode;
+            final boolean multiple;
+            final boolean stream;
+            final int streamCapacity;
+            final int maxParallelism;
+            final boolean tiled;
+            final boolean crop;
+            final File cropFile;
+            final boolean systemCrop;
+            final int cropWidth;
+            final int cropAspectX;
+            final int cropAspectY;
+            final Uri cameraOutputUri;
+            final boolean asBitmap;
+            final int bitmapMaxWidth;
+            final int bitmapMaxHeight;
+            final Bitmap.Config bitmapConfig;
+            final boolean memoryCache;
+            final CompressOptions compressOptions;
+            final int thumbnailSize;
+            final Executor executor;
+
+            Options(FileChooserBuilder builder) {
+                galleryRequestCode = builder.chooser_requestCode_gallery;
+                cameraRequestCode = builder.chooser_requestCode_camera;
+                cropRequestCode = builder.chooser_requestCode_crop;
+                fileRequestCode = builder.chooser_requestCode_file;
+                multiple = builder.isMultiple();
+                stream = builder.mStreamCallBack != null;
+                streamCapacity = builder.mStreamCapacity;
+                maxParallelism = builder.mMaxParallelism;
+                tiled = builder.mTiledImageCallBack != null;
+                crop = builder.isCrop;
+                cropFile = builder.mCropFile;
+                systemCrop = builder.mSystemCrop;
+                cropWidth = builder.mCropWidth;
+                cropAspectX = builder.mCropAspectX;
+                cropAspectY = builder.mCropAspectY;
+                cameraOutputUri = builder.mCameraOutputUri;
+                asBitmap = builder.asBitmap;
+                bitmapMaxWidth = builder.mBitmapMaxWidth;
+                bitmapMaxHeight = builder.mBitmapMaxHeight;
+                bitmapConfig = builder.getBitmapConfig();
+                memoryCache = builder.mMemoryCache;
+                compressOptions = builder.mCompressOptions != null ? builder.mCompressOptions.copy() : null;
+                thumbnailSize = builder.mThumbnailSize;
+                executor = builder.mExecutor != null ? builder.mExecutor : FileUriAsync.getExecutor();
             }
         }
 
@@ -539,12 +1083,13 @@ public class FileChooser {
          * 获取剪裁图片的启动 Intent
          *
          * @param photoUri       拍照、图库 选择图片的Uri
+         * @param srcPath        photoUri 的真实路径，只在 7.0 以下使用，需提前在后台解析
          * @param cropWidth      剪裁的宽度（正方形）
          * @param cropOutputFile 剪裁图片的输出文件
          * @return Intent
          * #bug记录：在华为手机上必须使用Uri.fromFile(cropOutputFile)来生成uri，否则会报错 "无法保存经过剪裁的图片"
          */
-        private Intent getCropImageIntent(Uri photoUri, int cropWidth, File cropOutputFile) {
+        private Intent getCropImageIntent(Uri photoUri, String srcPath, int cropWidth, File cropOutputFile) {
             Intent intent = new Intent("com.android.camera.action.CROP");
             if (Build.VERSION.SDK_INT >= 24) {
                 Uri outputUri = Uri.fromFile(cropOutputFile);
@@ -556,9 +1101,8 @@ public class FileChooser {
                 Uri outputUri = Uri.fromFile(cropOutputFile);
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
                     //这个方法是处理4.4以上图片返回的Uri对象不同的处理方法
-                    String srcFile = FileUriUtils.getFileRealPath(mContextWeakReference.get(), photoUri);
-                    if (srcFile != null) {
-                        intent.setDataAndType(Uri.fromFile(new File(srcFile)), "image/*");
+                    if (srcPath != null) {
+                        intent.setDataAndType(Uri.fromFile(new File(srcPath)), "image/*");
                     }
                 } else {
                     intent.setDataAndType(photoUri, "image/*");
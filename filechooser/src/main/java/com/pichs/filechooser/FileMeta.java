@@ -0,0 +1,288 @@
+package com.pichs.filechooser;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+import android.webkit.MimeTypeMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+
+/**
+ * 文件的基本信息：名称、大小、类型、修改时间，以及顺带能拿到的真实路径
+ * 一次查询、只查需要的列，按 Uri 缓存（MediaStore/Downloads 有变化时失效）
+ * FileMeta meta = FileUriUtils.getFileMeta(context, uri);
+ */
+@SuppressWarnings("ALL")
+public final class FileMeta {
+
+    private static final String TAG = "FileMeta";
+
+    private static final int CACHE_SIZE = 128;
+
+    private static final LruCache<Uri, FileMeta> sCache = new LruCache<>(CACHE_SIZE);
+
+    private static final String[] DOCUMENT_PROJECTION = {
+            DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_SIZE,
+            DocumentsContract.Document.COLUMN_MIME_TYPE,
+            DocumentsContract.Document.COLUMN_LAST_MODIFIED
+    };
+
+    private static final String[] MEDIA_PROJECTION = {
+            MediaStore.MediaColumns.DISPLAY_NAME,
+            MediaStore.MediaColumns.SIZE,
+            MediaStore.MediaColumns.MIME_TYPE,
+            MediaStore.MediaColumns.DATE_MODIFIED,
+            MediaStore.MediaColumns.DATA
+    };
+
+    private static final String[] OPENABLE_PROJECTION = {
+            OpenableColumns.DISPLAY_NAME,
+            OpenableColumns.SIZE
+    };
+
+    private final Uri uri;
+    private final String displayName;
+    private final long size;
+    private final String mimeType;
+    private final long lastModified;
+    private final String realPath;
+
+    /**
+     * 是否从 provider 查到了记录，查询失败或没有记录的结果不缓存
+     */
+    private final boolean queried;
+
+    private FileMeta(Uri uri, String displayName, long size, String mimeType, long lastModified, String realPath,
+                     boolean queried) {
+        this.uri = uri;
+        this.displayName = displayName;
+        this.size = size;
+        this.mimeType = mimeType;
+        this.lastModified = lastModified;
+        this.realPath = realPath;
+        this.queried = queried;
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
+    /**
+     * 显示名称，可能为空
+     */
+    @Nullable
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * 大小，未知为 -1
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * MIME 类型，可能为空
+     */
+    @Nullable
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * 最后修改时间（毫秒），未知为 -1
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * 真实路径，只有在不需要额外查询就能拿到时才有（file://、MediaStore 的 _data、已缓存的路径）
+     * 一定要路径请用 {@link FileUriUtils#getFileRealPath(Context, Uri)}
+     */
+    @Nullable
+    public String getRealPath() {
+        return realPath;
+    }
+
+    /**
+     * 文件名后缀（小写，不带点），没有返回空字符串
+     */
+    @NonNull
+    public String getExtension() {
+        String name = displayName != null ? displayName : realPath;
+        if (name == null) {
+            return "";
+        }
+        int dotIndex = name.lastIndexOf('.');
+        if (dotIndex < 0 || dotIndex == name.length() - 1) {
+            return "";
+        }
+        return name.substring(dotIndex + 1).toLowerCase();
+    }
+
+    @Override
+    public String toString() {
+        return "FileMeta{" +
+                "uri=" + uri +
+                ", displayName='" + displayName + '\'' +
+                ", size=" + size +
+                ", mimeType='" + mimeType + '\'' +
+                ", lastModified=" + lastModified +
+                ", realPath='" + realPath + '\'' +
+                '}';
+    }
+
+    /**
+     * 获取文件信息，有缓存直接返回
+     * file:// 和本应用 FileProvider 的 Uri 不缓存：拍照、剪裁的输出会在同一个 Uri 下被重写，
+     * 而 MediaStore 的监听收不到这些文件的变化；file:// 只是一次 stat，不需要缓存
+     */
+    @NonNull
+    static FileMeta get(@NonNull Context context, @NonNull Uri uri) {
+        if (!isCacheable(context, uri)) {
+            return load(context, uri);
+        }
+        FileMeta meta = sCache.get(uri);
+        if (meta == null) {
+            meta = load(context, uri);
+            if (meta.queried) {
+                sCache.put(uri, meta);
+            }
+        }
+        return meta;
+    }
+
+    /**
+     * 不使用缓存，重新查询，结果会更新缓存
+     * 用查询结果判断文件有没有变化（如磁盘缓存的 key）时使用，缓存的结果可能已经过期
+     */
+    @NonNull
+    static FileMeta query(@NonNull Context context, @NonNull Uri uri) {
+        final FileMeta meta = load(context, uri);
+        if (meta.queried && isCacheable(context, uri)) {
+            sCache.put(uri, meta);
+        }
+        return meta;
+    }
+
+    /**
+     * file:// 和本应用 FileProvider 的 Uri 会在原地被重写，按 Uri 缓存的结果可能过期
+     */
+    static boolean isCacheable(Context context, Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equalsIgnoreCase(uri.getScheme())) {
+            return false;
+        }
+        final String authority = uri.getAuthority();
+        return authority == null || !authority.startsWith(context.getPackageName());
+    }
+
+    static void clearCache() {
+        sCache.evictAll();
+    }
+
+    private static FileMeta load(Context context, Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equalsIgnoreCase(uri.getScheme())) {
+            String path = uri.getPath();
+            if (path == null) {
+                return new FileMeta(uri, null, -1, null, -1, null, false);
+            }
+            File file = new File(path);
+            return new FileMeta(uri, file.getName(), file.exists() ? file.length() : -1,
+                    getMimeTypeFromName(file.getName()), file.exists() ? file.lastModified() : -1, path, file.exists());
+        }
+
+        String[] projection;
+        if (DocumentsContract.isDocumentUri(context, uri)) {
+            projection = DOCUMENT_PROJECTION;
+        } else if (MediaStore.AUTHORITY.equals(uri.getAuthority())) {
+            projection = MEDIA_PROJECTION;
+        } else {
+            projection = OPENABLE_PROJECTION;
+        }
+
+        String displayName = null;
+        long size = -1;
+        String mimeType = null;
+        long lastModified = -1;
+        String realPath = null;
+        boolean queried = false;
+        Cursor cursor = null;
+        try {
+            try {
+                cursor = context.getContentResolver().query(uri, projection, null, null, null);
+            } catch (IllegalArgumentException e) {
+                // provider 不认识某些列，退回到所有 provider 都必须支持的两列
+                projection = OPENABLE_PROJECTION;
+                cursor = context.getContentResolver().query(uri, projection, null, null, null);
+            }
+            if (cursor != null && cursor.moveToFirst()) {
+                queried = true;
+                displayName = getString(cursor, OpenableColumns.DISPLAY_NAME);
+                size = getLong(cursor, OpenableColumns.SIZE);
+                if (projection == DOCUMENT_PROJECTION) {
+                    mimeType = getString(cursor, DocumentsContract.Document.COLUMN_MIME_TYPE);
+                    lastModified = getLong(cursor, DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                } else if (projection == MEDIA_PROJECTION) {
+                    mimeType = getString(cursor, MediaStore.MediaColumns.MIME_TYPE);
+                    long seconds = getLong(cursor, MediaStore.MediaColumns.DATE_MODIFIED);
+                    lastModified = seconds < 0 ? -1 : seconds * 1000;
+                    realPath = getString(cursor, MediaStore.MediaColumns.DATA);
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "query meta failed: " + e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        if (TextUtils.isEmpty(mimeType)) {
+            mimeType = getMimeTypeFromName(displayName);
+        }
+        if (TextUtils.isEmpty(mimeType)) {
+            try {
+                mimeType = context.getContentResolver().getType(uri);
+            } catch (Exception e) {
+                Log.w(TAG, "getType failed: " + e);
+            }
+        }
+        if (realPath == null) {
+            realPath = FileUriUtils.peekCachedPath(uri);
+        }
+        return new FileMeta(uri, displayName, size, mimeType, lastModified, realPath, queried);
+    }
+
+    private static String getMimeTypeFromName(String name) {
+        if (name == null) {
+            return null;
+        }
+        int dotIndex = name.lastIndexOf('.');
+        if (dotIndex < 0) {
+            return null;
+        }
+        return MimeTypeMap.getSingleton().getMimeTypeFromExtension(name.substring(dotIndex + 1).toLowerCase());
+    }
+
+    private static String getString(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return index < 0 ? null : cursor.getString(index);
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return index < 0 || cursor.isNull(index) ? -1 : cursor.getLong(index);
+    }
+}
@@ -0,0 +1,304 @@
+package com.pichs.filechooser;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Environment;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 管理本库写出的文件，控制总大小和存活时间
+ * 管理范围：
+ * 1、cacheDir/documents  Downloads 无法解析时的拷贝
+ * 2、cacheDir/compressed  选择后压缩的输出
+ * 3、cacheDir/thumbnails  缩略图的磁盘缓存
+ * 4、getExternalFilesDir(Pictures) 下的 *_CAMERA_IMG.jpg、*_CROP_IMG.jpg  拍照和剪裁的输出
+ * 调用方自己指定文件名的 saveBitmapAndReturnUri 输出不在管理范围内
+ * <p>
+ * // Application.onCreate 中
+ * FileStorageManager.get()
+ * .maxBytes(100 * 1024 * 1024)
+ * .maxAge(3 * 24 * 60 * 60 * 1000L)
+ * .init(this);
+ */
+@SuppressWarnings("ALL")
+public class FileStorageManager {
+
+    private static final String TAG = "FileStorageManager";
+
+    private static final long DEFAULT_MAX_BYTES = 200L * 1024 * 1024;
+
+    private static final long DEFAULT_MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+
+    /**
+     * 最近这段时间内写过的文件不参与容量淘汰，避免删掉正在使用的拍照/剪裁输出
+     */
+    private static final long MIN_EVICT_AGE = 60 * 1000;
+
+    private static final FileStorageManager INSTANCE = new FileStorageManager();
+
+    private volatile long mMaxBytes = DEFAULT_MAX_BYTES;
+    private volatile long mMaxAge = DEFAULT_MAX_AGE;
+    private volatile long mUsageBytes = -1;
+    private volatile Context mAppContext;
+
+    private final AtomicBoolean mTrimScheduled = new AtomicBoolean(false);
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "FileStorageManager");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    private FileStorageManager() {
+    }
+
+    public static FileStorageManager get() {
+        return INSTANCE;
+    }
+
+    /**
+     * 总大小上限，超出后按最近最少使用淘汰，默认 200MB
+     */
+    public FileStorageManager maxBytes(long maxBytes) {
+        this.mMaxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * 文件最长保留时间（毫秒），默认 7 天
+     */
+    public FileStorageManager maxAge(long maxAgeMillis) {
+        this.mMaxAge = maxAgeMillis;
+        return this;
+    }
+
+    /**
+     * 启动时调用一次：后台清理一次，并在系统回调 onTrimMemory 时自动清理
+     */
+    public FileStorageManager init(@NonNull Context context) {
+        boolean first = mAppContext == null;
+        mAppContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        if (first) {
+            mAppContext.registerComponentCallbacks(new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    FileStorageManager.this.onTrimMemory(level);
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {
+                }
+
+                @Override
+                public void onLowMemory() {
+                    FileStorageManager.this.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+                }
+            });
+        }
+        trim(mAppContext);
+        return this;
+    }
+
+    /**
+     * 可在 Activity/Application 的 onTrimMemory 中调用，界面不可见后在后台清理
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN && mAppContext != null) {
+            trim(mAppContext);
+        }
+    }
+
+    /**
+     * 后台清理，多次调用会合并为一次
+     */
+    public void trim(@NonNull Context context) {
+        if (mAppContext == null) {
+            mAppContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        }
+        if (!mTrimScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        final Context appContext = mAppContext;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mTrimScheduled.set(false);
+                try {
+                    trimSync(appContext);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * 当前占用的字节数，为上次清理后的统计值，还没统计过返回 -1
+     */
+    public long getUsageBytes() {
+        return mUsageBytes;
+    }
+
+    /**
+     * 重新统计占用的字节数，会扫描目录，不要在主线程调用
+     */
+    public long computeUsageBytes(@NonNull Context context) {
+        long total = 0;
+        for (File file : listManagedFiles(context)) {
+            total += file.length();
+        }
+        mUsageBytes = total;
+        return total;
+    }
+
+    /**
+     * 同步清理，不要在主线程调用
+     *
+     * @return 清理后的占用字节数
+     */
+    public long trimSync(@NonNull Context context) {
+        final long now = System.currentTimeMillis();
+        final long maxAge = mMaxAge;
+        final long maxBytes = mMaxBytes;
+        final List<FileEntry> entries = new ArrayList<>();
+        long total = 0;
+        for (File file : listManagedFiles(context)) {
+            FileEntry entry = new FileEntry(file, file.length(), file.lastModified());
+            if (maxAge > 0 && now - entry.lastModified > maxAge) {
+                delete(context, file);
+                continue;
+            }
+            entries.add(entry);
+            total += entry.length;
+        }
+        if (maxBytes >= 0 && total > maxBytes) {
+            // 按最后使用时间从旧到新淘汰
+            Collections.sort(entries, new Comparator<FileEntry>() {
+                @Override
+                public int compare(FileEntry o1, FileEntry o2) {
+                    return o1.lastModified < o2.lastModified ? -1 : (o1.lastModified == o2.lastModified ? 0 : 1);
+                }
+            });
+            for (FileEntry entry : entries) {
+                if (total <= maxBytes) {
+                    break;
+                }
+                if (now - entry.lastModified < MIN_EVICT_AGE) {
+                    continue;
+                }
+                if (delete(context, entry.file)) {
+                    total -= entry.length;
+                }
+            }
+        }
+        mUsageBytes = total;
+        return total;
+    }
+
+    private boolean delete(Context context, File file) {
+        if (!file.delete()) {
+            Log.w(TAG, "delete failed: " + file);
+            return false;
+        }
+        DocumentCache.onFileRemoved(file);
+        FileUriUtils.invalidatePath(file.getAbsolutePath());
+        if (isPicturesOutput(file)) {
+            deleteMediaStoreRow(context, file);
+        }
+        return true;
+    }
+
+    /**
+     * 拍照和剪裁的输出返回 Uri 时会插入到 MediaStore（见 FileUriUtils.getUri），文件删除后把记录也删掉
+     */
+    private static boolean isPicturesOutput(File file) {
+        final String name = file.getName();
+        return name.endsWith(FileChooser.FileChooserBuilder.SUFFIX_FILE_NAME_CAMERA)
+                || name.endsWith(FileChooser.FileChooserBuilder.SUFFIX_FILE_NAME_CROP);
+    }
+
+    private static void deleteMediaStoreRow(Context context, File file) {
+        try {
+            context.getContentResolver().delete(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                    MediaStore.Images.Media.DATA + "=?", new String[]{file.getAbsolutePath()});
+        } catch (Exception e) {
+            // 没有对应记录或没有权限，记录会在系统下次扫描时清理
+            Log.w(TAG, "delete MediaStore row failed: " + file + ", " + e);
+        }
+    }
+
+    /**
+     * 所有受管理的文件
+     */
+    private List<File> listManagedFiles(Context context) {
+        final List<File> files = new ArrayList<>();
+        collect(DocumentCache.getCacheDir(context), null, files);
+        collect(ImageCompressor.getCacheDir(context), null, files);
+        collect(ThumbnailLoader.getCacheDir(context), null, files);
+        File pictures = null;
+        try {
+            pictures = context.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        if (pictures != null) {
+            collect(pictures, new String[]{
+                    FileChooser.FileChooserBuilder.SUFFIX_FILE_NAME_CAMERA,
+                    FileChooser.FileChooserBuilder.SUFFIX_FILE_NAME_CROP
+            }, files);
+        }
+        return files;
+    }
+
+    private static void collect(File dir, String[] suffixes, List<File> out) {
+        final File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (!child.isFile()) {
+                continue;
+            }
+            if (suffixes == null) {
+                out.add(child);
+                continue;
+            }
+            for (String suffix : suffixes) {
+                if (child.getName().endsWith(suffix)) {
+                    out.add(child);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static class FileEntry {
+        final File file;
+        final long length;
+        final long lastModified;
+
+        FileEntry(File file, long length, long lastModified) {
+            this.file = file;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+}
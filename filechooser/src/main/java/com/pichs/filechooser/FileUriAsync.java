@@ -0,0 +1,345 @@
+package com.pichs.filechooser;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link FileUriUtils} 的异步版本，在后台线程执行，结果在主线程回调
+ * FileUriAsync.getFileRealPath(context, uri, new FileUriAsync.OnResultCallBack<String>() {
+ * public void onCallBack(String path, Throwable error) {
+ * ...
+ * }
+ * });
+ * 同一个 Uri 同时发起的多次请求只会执行一次
+ */
+@SuppressWarnings("ALL")
+public class FileUriAsync {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    static final int POOL_SIZE = Math.max(2, Math.min(CPU_COUNT, 4));
+
+    private static volatile Executor sExecutor;
+
+    /**
+     * key -> 正在执行的操作，用于合并相同的请求
+     */
+    private static final Map<String, Operation<?>> sInFlight = new ConcurrentHashMap<>();
+
+    public interface OnResultCallBack<T> {
+        /**
+         * 主线程回调
+         *
+         * @param result 结果
+         * @param error  出错时不为空
+         */
+        void onCallBack(@Nullable T result, @Nullable Throwable error);
+    }
+
+    /**
+     * 可取消的后台任务
+     */
+    public interface Task<T> {
+        T run(@NonNull CancellationSignal signal) throws Exception;
+    }
+
+    private FileUriAsync() {
+    }
+
+    /**
+     * 设置执行用的线程池，不设置则使用默认的有界线程池
+     */
+    public static void setExecutor(@Nullable Executor executor) {
+        sExecutor = executor;
+    }
+
+    public static Executor getExecutor() {
+        Executor executor = sExecutor;
+        if (executor == null) {
+            synchronized (FileUriAsync.class) {
+                executor = sExecutor;
+                if (executor == null) {
+                    sExecutor = executor = createDefaultExecutor();
+                }
+            }
+        }
+        return executor;
+    }
+
+    private static Executor createDefaultExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "FileChooser-io-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 异步获取真实路径
+     */
+    public static FileUriFuture<String> getFileRealPath(@NonNull Context context, @NonNull final Uri uri,
+                                                        @Nullable OnResultCallBack<String> callBack) {
+        final Context appContext = appContext(context);
+        return submit("path:" + uri, new Task<String>() {
+            @Override
+            public String run(CancellationSignal signal) {
+                return FileUriUtils.getFileRealPath(appContext, uri);
+            }
+        }, callBack);
+    }
+
+    /**
+     * 异步批量获取真实路径
+     */
+    public static FileUriFuture<List<String>> getFileRealPaths(@NonNull Context context, @NonNull List<Uri> uris,
+                                                               @Nullable OnResultCallBack<List<String>> callBack) {
+        final Context appContext = appContext(context);
+        final List<Uri> copy = new ArrayList<>(uris);
+        return submit(null, new Task<List<String>>() {
+            @Override
+            public List<String> run(CancellationSignal signal) {
+                return FileUriUtils.getFileRealPaths(appContext, copy);
+            }
+        }, callBack);
+    }
+
+    /**
+     * 异步获取文件的 Uri（可能会查询或插入 MediaStore）
+     */
+    public static FileUriFuture<Uri> getUri(@NonNull Context context, @FileUriUtils.UriType final String fileType,
+                                            @NonNull final File file, @Nullable final String authority,
+                                            @Nullable OnResultCallBack<Uri> callBack) {
+        final Context appContext = appContext(context);
+        return submit("uri:" + fileType + ":" + file.getAbsolutePath(), new Task<Uri>() {
+            @Override
+            public Uri run(CancellationSignal signal) {
+                return FileUriUtils.getUri(appContext, fileType, file, authority);
+            }
+        }, callBack);
+    }
+
+    /**
+     * 异步拷贝 Uri 内容到文件，取消时会中断拷贝并删除写了一半的文件
+     */
+    public static FileUriFuture<File> copyToFile(@NonNull Context context, @NonNull final Uri uri, @NonNull final File dest,
+                                                 @Nullable OnResultCallBack<File> callBack) {
+        final Context appContext = appContext(context);
+        return submit("copy:" + uri + "->" + dest.getAbsolutePath(), new Task<File>() {
+            @Override
+            public File run(CancellationSignal signal) throws Exception {
+                UriFileCopier.copy(appContext, uri, dest, signal, null);
+                return dest;
+            }
+        }, callBack);
+    }
+
+    /**
+     * 异步保存 bitmap 并返回 Uri
+     */
+    public static FileUriFuture<Uri> saveBitmapAndReturnUri(@NonNull Context context, @NonNull final Bitmap bitmap,
+                                                            @NonNull final String fileName,
+                                                            @Nullable OnResultCallBack<Uri> callBack) {
+        final Context appContext = appContext(context);
+        return submit(null, new Task<Uri>() {
+            @Override
+            public Uri run(CancellationSignal signal) {
+                return FileUriUtils.saveBitmapAndReturnUri(appContext, bitmap, fileName);
+            }
+        }, callBack);
+    }
+
+    /**
+     * 异步保存 bitmap 并返回 Uri，编码、写文件和 MediaStore 的查询/插入都在后台执行，Uri 准备好后才回调
+     *
+     * @param format  格式
+     * @param quality 质量 0-100，PNG 忽略
+     * @param fsync   是否等数据写入磁盘后再返回
+     */
+    public static FileUriFuture<Uri> saveBitmapAndReturnUri(@NonNull Context context, @NonNull final Bitmap bitmap,
+                                                            @NonNull final String fileName,
+                                                            @NonNull final Bitmap.CompressFormat format, final int quality,
+                                                            final boolean fsync,
+                                                            @Nullable OnResultCallBack<Uri> callBack) {
+        final Context appContext = appContext(context);
+        return submit(null, new Task<Uri>() {
+            @Override
+            public Uri run(CancellationSignal signal) throws Exception {
+                File file = FileUriUtils.saveBitmap(appContext, bitmap, fileName, format, quality, fsync);
+                if (file == null) {
+                    throw new IOException("Save bitmap failed: " + fileName);
+                }
+                // 已经取消时不再发布到 MediaStore
+                signal.throwIfCanceled();
+                return FileUriUtils.getUri(appContext, ContentType.IMAGE, file);
+            }
+        }, callBack);
+    }
+
+    /**
+     * 提交自定义任务
+     *
+     * @param key      相同 key 的并发请求合并为一次执行，为空则不合并
+     * @param task     任务
+     * @param callBack 主线程回调，可为空
+     */
+    public static <T> FileUriFuture<T> submit(@Nullable String key, @NonNull Task<T> task,
+                                              @Nullable OnResultCallBack<T> callBack) {
+        final FileUriFuture<T> future = new FileUriFuture<>();
+        if (callBack != null) {
+            future.addCallBack(callBack);
+        }
+        if (key != null) {
+            synchronized (sInFlight) {
+                Operation<T> running = (Operation<T>) sInFlight.get(key);
+                if (running != null && running.attach(future)) {
+                    return future;
+                }
+                Operation<T> operation = new Operation<>(key, task);
+                operation.attach(future);
+                sInFlight.put(key, operation);
+                execute(operation);
+            }
+        } else {
+            Operation<T> operation = new Operation<>(null, task);
+            operation.attach(future);
+            execute(operation);
+        }
+        return future;
+    }
+
+    private static void execute(Operation<?> operation) {
+        try {
+            getExecutor().execute(operation);
+        } catch (RuntimeException e) {
+            operation.finish(null, e);
+        }
+    }
+
+    private static Context appContext(Context context) {
+        Context appContext = context.getApplicationContext();
+        return appContext != null ? appContext : context;
+    }
+
+    /**
+     * 一次实际的执行，可能被多个句柄共享
+     */
+    static final class Operation<T> implements Runnable {
+
+        private final String mKey;
+        private final Task<T> mTask;
+        private final CancellationSignal mSignal = new CancellationSignal();
+        private final List<FileUriFuture<T>> mFutures = new ArrayList<>(1);
+        // 以下由 this 保护
+        private boolean mFinished;
+        private boolean mCanceled;
+
+        Operation(String key, Task<T> task) {
+            this.mKey = key;
+            this.mTask = task;
+        }
+
+        /**
+         * @return 已经结束或已取消时返回 false
+         */
+        synchronized boolean attach(FileUriFuture<T> future) {
+            if (mFinished || mCanceled) {
+                return false;
+            }
+            future.setOperation(this);
+            mFutures.add(future);
+            return true;
+        }
+
+        void detach(FileUriFuture<T> future) {
+            // 与 submit 相同的加锁顺序（sInFlight -> this），标记取消和移出 sInFlight 之间不会有新的 attach
+            synchronized (sInFlight) {
+                synchronized (this) {
+                    mFutures.remove(future);
+                    if (!mFutures.isEmpty() || mFinished || mCanceled) {
+                        return;
+                    }
+                    // 没有人等结果了，真正取消
+                    mCanceled = true;
+                    if (mKey != null && sInFlight.get(mKey) == this) {
+                        sInFlight.remove(mKey);
+                    }
+                }
+            }
+            mSignal.cancel();
+        }
+
+        @Override
+        public void run() {
+            if (mSignal.isCanceled()) {
+                // 仍然走 finish，保证所有挂上来的句柄都能结束
+                finish(null, new CancellationException());
+                return;
+            }
+            T result = null;
+            Throwable error = null;
+            try {
+                result = mTask.run(mSignal);
+            } catch (Throwable e) {
+                error = e;
+            }
+            finish(result, error);
+        }
+
+        void finish(T result, Throwable error) {
+            removeInFlight();
+            final List<FileUriFuture<T>> futures;
+            synchronized (this) {
+                mFinished = true;
+                futures = new ArrayList<>(mFutures);
+                mFutures.clear();
+            }
+            for (FileUriFuture<T> future : futures) {
+                future.complete(result, error);
+            }
+        }
+
+        private void removeInFlight() {
+            if (mKey != null) {
+                synchronized (sInFlight) {
+                    if (sInFlight.get(mKey) == this) {
+                        sInFlight.remove(mKey);
+                    }
+                }
+            }
+        }
+    }
+}
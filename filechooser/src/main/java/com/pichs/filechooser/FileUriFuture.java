@@ -0,0 +1,150 @@
+package com.pichs.filechooser;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link FileUriAsync} 返回的异步结果句柄
+ * 可以像 Future 一样 get()，也可以 addCallBack() 在主线程接收结果；
+ * 同一个 Uri 的并发请求共享同一次执行，取消只影响当前句柄，所有句柄都取消后才真正取消执行
+ */
+@SuppressWarnings("ALL")
+public class FileUriFuture<T> implements Future<T> {
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_DONE = 1;
+    private static final int STATE_CANCELLED = 2;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final CountDownLatch mLatch = new CountDownLatch(1);
+    private final List<FileUriAsync.OnResultCallBack<T>> mCallBacks = new ArrayList<>(1);
+    // 由 this 保护，cancel() 可能在任意线程调用
+    private FileUriAsync.Operation<T> mOperation;
+    private int mState = STATE_PENDING;
+    private T mResult;
+    private Throwable mError;
+
+    FileUriFuture() {
+    }
+
+    synchronized void setOperation(FileUriAsync.Operation<T> operation) {
+        this.mOperation = operation;
+    }
+
+    /**
+     * 添加结果回调，在主线程回调；已经完成的会立即（post 到主线程）回调，被取消的不会回调
+     */
+    public FileUriFuture<T> addCallBack(@NonNull FileUriAsync.OnResultCallBack<T> callBack) {
+        synchronized (this) {
+            if (mState == STATE_PENDING) {
+                mCallBacks.add(callBack);
+                return this;
+            }
+            if (mState == STATE_CANCELLED) {
+                return this;
+            }
+        }
+        post(callBack);
+        return this;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        final FileUriAsync.Operation<T> operation;
+        synchronized (this) {
+            if (mState != STATE_PENDING) {
+                return false;
+            }
+            mState = STATE_CANCELLED;
+            mCallBacks.clear();
+            operation = mOperation;
+        }
+        mLatch.countDown();
+        if (operation != null) {
+            operation.detach(this);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mState == STATE_CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mState != STATE_PENDING;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        mLatch.await();
+        return getResult();
+    }
+
+    @Override
+    public T get(long timeout, @NonNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!mLatch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    private synchronized T getResult() throws ExecutionException {
+        if (mState == STATE_CANCELLED) {
+            throw new CancellationException();
+        }
+        if (mError != null) {
+            throw new ExecutionException(mError);
+        }
+        return mResult;
+    }
+
+    /**
+     * 工作线程执行完成后调用
+     */
+    void complete(T result, Throwable error) {
+        final List<FileUriAsync.OnResultCallBack<T>> callBacks;
+        synchronized (this) {
+            if (mState != STATE_PENDING) {
+                return;
+            }
+            mState = STATE_DONE;
+            mResult = result;
+            mError = error;
+            callBacks = new ArrayList<>(mCallBacks);
+            mCallBacks.clear();
+        }
+        mLatch.countDown();
+        for (FileUriAsync.OnResultCallBack<T> callBack : callBacks) {
+            post(callBack);
+        }
+    }
+
+    private void post(final FileUriAsync.OnResultCallBack<T> callBack) {
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final T result;
+                final Throwable error;
+                synchronized (FileUriFuture.this) {
+                    result = mResult;
+                    error = mError;
+                }
+                callBack.onCallBack(result, error);
+            }
+        });
+    }
+}
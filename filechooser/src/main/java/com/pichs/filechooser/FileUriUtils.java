@@ -5,6 +5,7 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
@@ -13,26 +14,37 @@ import android.os.Environment;
 import android.os.StrictMode;
 import android.provider.DocumentsContract;
 import android.provider.MediaStore;
-import android.provider.OpenableColumns;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.StringDef;
+import androidx.annotation.WorkerThread;
 import androidx.core.content.FileProvider;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * create by pichs
@@ -49,6 +61,86 @@ public class FileUriUtils {
 
     private static final String TAG = "Share";
 
+    /**
+     * 真实路径缓存默认容量（条目数）
+     */
+    private static final int DEFAULT_PATH_CACHE_SIZE = 256;
+
+    /**
+     * Uri -> 真实路径 的缓存，LruCache 本身是线程安全的
+     * 通过 {@link #putPath} 写入，移除（淘汰、remove、evictAll）时同步移出 sPathPeek
+     */
+    private static final LruCache<Uri, String> sPathCache = new LruCache<Uri, String>(DEFAULT_PATH_CACHE_SIZE) {
+        @Override
+        protected void entryRemoved(boolean evicted, Uri key, String oldValue, String newValue) {
+            if (newValue == null) {
+                sPathPeek.remove(key, oldValue);
+            }
+        }
+    };
+
+    /**
+     * 与 sPathCache 内容相同，只用于 {@link #peekCachedPath}：查询不改变 LRU 顺序，也不用复制整个缓存
+     */
+    private static final ConcurrentHashMap<Uri, String> sPathPeek = new ConcurrentHashMap<>();
+
+    /**
+     * 监听 MediaStore 和 Downloads 的变化，有变化就清空路径缓存
+     */
+    private static volatile PathCacheObserver sPathCacheObserver;
+
+    /**
+     * Downloads 的几种 content 前缀，不同 ROM 支持的不一样
+     */
+    private static final String[] DOWNLOADS_CONTENT_URI_PREFIXES = new String[]{
+            "content://downloads/public_downloads",
+            "content://downloads/my_downloads",
+            "content://downloads/all_downloads"
+    };
+
+    /**
+     * 当前设备上查询成功过的 Downloads 前缀，进程内记住，下次优先使用
+     */
+    private static volatile String sWorkingDownloadsPrefix;
+
+    /**
+     * 查询直接抛异常（ROM 不支持）的 Downloads 前缀，进程内不再重试
+     */
+    private static final Set<String> sDeadDownloadsPrefixes =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * authority -> 路径解析器，一次 map 查找完成分发
+     */
+    private static final Map<String, ResolverStats> sResolvers = new ConcurrentHashMap<>();
+
+    private static final ResolverStats sFallbackStats = new ResolverStats("*", new QueryRealPathResolver());
+
+    static {
+        registerBuiltInResolver("com.android.externalstorage.documents", new ExternalStorageDocumentResolver());
+        registerBuiltInResolver("com.android.providers.downloads.documents", new DownloadsDocumentResolver());
+        registerBuiltInResolver("com.android.providers.media.documents", new MediaDocumentResolver());
+        registerBuiltInResolver("es.fileexplorer.filebrowser.ezfilemanager.externalstorage.documents", new EsFileExplorerResolver());
+        registerBuiltInResolver("com.tencent.mtt.fileprovider", new QQBrowserResolver());
+        registerBuiltInResolver("com.google.android.apps.photos.content", new GooglePhotosResolver());
+    }
+
+    private static void registerBuiltInResolver(String authority, UriPathResolver resolver) {
+        sResolvers.put(authority, new ResolverStats(authority, resolver));
+    }
+
+    /**
+     * generateFileName 的序号计数器，key 为 目录/文件名
+     */
+    private static final Map<String, AtomicInteger> sNameCounters = new ConcurrentHashMap<>();
+
+    private static final int MAX_GENERATE_NAME_ATTEMPTS = 100;
+
+    /**
+     * IN 查询每批最多的参数个数，SQLite 默认上限是 999
+     */
+    private static final int MAX_QUERY_ARGS = 500;
+
     @StringDef({ContentType.IMAGE, ContentType.AUDIO, ContentType.VIDEO, ContentType.FILE})
     @Retention(RetentionPolicy.SOURCE)
     public @interface UriType {
@@ -154,6 +246,7 @@ public class FileUriUtils {
 
     /**
      * 获取文件的真实路劲 ，终级版 （超多适配...）
+     * 结果会缓存，MediaStore 或 Downloads 有变化时缓存自动失效
      */
     public static String getFileRealPath(final Context context, final Uri uri) {
         if (context == null) {
@@ -164,106 +257,661 @@ public class FileUriUtils {
             Log.e(TAG, "getFileRealPath uri is null.");
             return null;
         }
+        ensurePathCacheObserver(context);
+        String realPath = sPathCache.get(uri);
+        if (realPath != null) {
+            return realPath;
+        }
+        realPath = resolveFileRealPath(context, uri);
+        if (!TextUtils.isEmpty(realPath)) {
+            putPath(uri, realPath);
+        }
+        return realPath;
+    }
 
+    /**
+     * 设置真实路径缓存的容量（条目数）
+     */
+    public static void setPathCacheSize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        sPathCache.resize(maxSize);
+    }
+
+    /**
+     * 清空真实路径缓存
+     */
+    public static void clearPathCache() {
+        sPathCache.evictAll();
+    }
+
+    /**
+     * 文件被删除后，移除指向它的缓存
+     */
+    static void invalidatePath(String path) {
+        for (Map.Entry<Uri, String> entry : sPathCache.snapshot().entrySet()) {
+            if (entry.getValue().equals(path)) {
+                sPathCache.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * 只看缓存里有没有，不解析，也不计入命中统计
+     */
+    @Nullable
+    static String peekCachedPath(Uri uri) {
+        return sPathPeek.get(uri);
+    }
+
+    private static void putPath(Uri uri, String path) {
+        sPathPeek.put(uri, path);
+        sPathCache.put(uri, path);
+    }
+
+    /**
+     * 路径缓存命中次数
+     */
+    public static int getPathCacheHitCount() {
+        return sPathCache.hitCount();
+    }
+
+    /**
+     * 路径缓存未命中次数，每次未命中都意味着走了一次完整的解析（通常有 ContentResolver 查询）
+     */
+    public static int getPathCacheMissCount() {
+        return sPathCache.missCount();
+    }
+
+    /**
+     * 注册 ContentObserver，只注册一次，使用 ApplicationContext 避免泄漏
+     */
+    private static void ensurePathCacheObserver(Context context) {
+        if (sPathCacheObserver != null) {
+            return;
+        }
+        synchronized (FileUriUtils.class) {
+            if (sPathCacheObserver != null) {
+                return;
+            }
+            Context appContext = context.getApplicationContext();
+            if (appContext == null) {
+                appContext = context;
+            }
+            PathCacheObserver observer = new PathCacheObserver();
+            try {
+                ContentResolver resolver = appContext.getContentResolver();
+                resolver.registerContentObserver(MediaStore.Files.getContentUri("external"), true, observer);
+                resolver.registerContentObserver(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, observer);
+                resolver.registerContentObserver(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, true, observer);
+                resolver.registerContentObserver(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, observer);
+                resolver.registerContentObserver(Uri.parse("content://downloads"), true, observer);
+                resolver.registerContentObserver(Uri.parse("content://com.android.providers.downloads.documents"), true, observer);
+            } catch (Exception e) {
+                Log.w(TAG, e);
+            }
+            sPathCacheObserver = observer;
+        }
+    }
+
+    private static class PathCacheObserver extends ContentObserver {
+
+        PathCacheObserver() {
+            // 不指定 Handler，直接在 binder 线程回调，LruCache 线程安全
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            // 文档 Uri 和媒体库 Uri 对不上号，没法精确失效，直接全部清掉
+            sPathCache.evictAll();
+            FileMeta.clearCache();
+            MimeSniffer.clearCache();
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onChange(selfChange);
+        }
+    }
+
+    /**
+     * 真正的解析逻辑，不走缓存
+     */
+    private static String resolveFileRealPath(final Context context, final Uri uri) {
         String realPath = null;
-        if (Build.VERSION.SDK_INT >= 19) {
-            if (DocumentsContract.isDocumentUri(context, uri)) {
-                if ("com.android.externalstorage.documents".equals(uri.getAuthority())) {
-                    final String docId = DocumentsContract.getDocumentId(uri);
-                    final String[] split = docId.split(":");
-                    final String type = split[0];
-                    if ("primary".equalsIgnoreCase(type)) {
-                        realPath = Environment.getExternalStorageDirectory() + "/" + split[1];
-                    } else if ("home".equalsIgnoreCase(type)) {
-                        realPath = Environment.getExternalStorageDirectory() + "/documents/" + split[1];
-                    }
-                } else if ("com.android.providers.downloads.documents".equals(uri.getAuthority())) {
-                    final String id = DocumentsContract.getDocumentId(uri);
-                    if (id.startsWith("raw:")) {
-                        realPath = id.substring(4);
-                    } else {
-                        final String[] contentUriPrefixesToTry = new String[]{
-                                "content://downloads/public_downloads",
-                                "content://downloads/my_downloads",
-                                "content://downloads/all_downloads"
-                        };
-                        for (String download_uri : contentUriPrefixesToTry) {
-                            try {
-                                final Uri contentUri = ContentUris.withAppendedId(Uri.parse(download_uri), Long.valueOf(id));
-                                realPath = getDataColumn(context, contentUri, null, null);
-                            } catch (Exception e) {
-                                e.printStackTrace();
+        if (ContentResolver.SCHEME_FILE.equalsIgnoreCase(uri.getScheme())) {
+            return uri.getPath();
+        }
+        final String authority = uri.getAuthority();
+        final ResolverStats resolver = authority == null ? null : sResolvers.get(authority);
+        if (resolver != null) {
+            realPath = resolver.resolve(context, uri);
+        }
+        if (TextUtils.isEmpty(realPath) && isRootUri(uri)) {
+            String[] pathArr = uri.toString().split("root");
+            if (pathArr.length > 1) {
+                realPath = pathArr[1];
+            }
+        }
+        // 终极路径查询....
+        if (TextUtils.isEmpty(realPath)) {
+            realPath = sFallbackStats.resolve(context, uri);
+        }
+        return realPath;
+    }
+
+    /**
+     * 注册某个 authority 的路径解析器，同一个 authority 后注册的覆盖先注册的（包括内置的）
+     *
+     * @param authority Uri 的 authority
+     * @param resolver  解析器
+     */
+    public static void registerResolver(@NonNull String authority, @NonNull UriPathResolver resolver) {
+        sResolvers.put(authority, new ResolverStats(authority, resolver));
+        sPathCache.evictAll();
+    }
+
+    /**
+     * 移除某个 authority 的路径解析器，移除后该 authority 走通用的查询
+     */
+    public static void unregisterResolver(@NonNull String authority) {
+        if (sResolvers.remove(authority) != null) {
+            sPathCache.evictAll();
+        }
+    }
+
+    /**
+     * 每个解析器的调用次数、命中次数和耗时，按总耗时从高到低排序
+     * authority 为 "*" 的一项是兜底的 _data 查询
+     */
+    public static List<ResolverStats> getResolverStats() {
+        List<ResolverStats> stats = new ArrayList<>(sResolvers.values());
+        stats.add(sFallbackStats);
+        Collections.sort(stats, new Comparator<ResolverStats>() {
+            @Override
+            public int compare(ResolverStats o1, ResolverStats o2) {
+                long t1 = o1.getTotalTimeNanos();
+                long t2 = o2.getTotalTimeNanos();
+                return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+            }
+        });
+        return stats;
+    }
+
+    /**
+     * 解析器的统计信息
+     */
+    public static final class ResolverStats {
+
+        private final String authority;
+        private final UriPathResolver resolver;
+        private final AtomicLong callCount = new AtomicLong();
+        private final AtomicLong hitCount = new AtomicLong();
+        private final AtomicLong totalTimeNanos = new AtomicLong();
+
+        ResolverStats(String authority, UriPathResolver resolver) {
+            this.authority = authority;
+            this.resolver = resolver;
+        }
+
+        String resolve(Context context, Uri uri) {
+            final long start = System.nanoTime();
+            String path = null;
+            try {
+                path = resolver.resolve(context, uri);
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                totalTimeNanos.addAndGet(System.nanoTime() - start);
+                callCount.incrementAndGet();
+            }
+            if (!TextUtils.isEmpty(path)) {
+                hitCount.incrementAndGet();
+            }
+            return path;
+        }
+
+        public String getAuthority() {
+            return authority;
+        }
+
+        public long getCallCount() {
+            return callCount.get();
+        }
+
+        public long getHitCount() {
+            return hitCount.get();
+        }
+
+        public long getTotalTimeNanos() {
+            return totalTimeNanos.get();
+        }
+
+        public long getAverageTimeNanos() {
+            long calls = callCount.get();
+            return calls == 0 ? 0 : totalTimeNanos.get() / calls;
+        }
+
+        @Override
+        public String toString() {
+            return "ResolverStats{" +
+                    "authority='" + authority + '\'' +
+                    ", calls=" + getCallCount() +
+                    ", hits=" + getHitCount() +
+                    ", avgNanos=" + getAverageTimeNanos() +
+                    '}';
+        }
+    }
+
+    /**
+     * com.android.externalstorage.documents
+     */
+    private static class ExternalStorageDocumentResolver implements UriPathResolver {
+        @Override
+        public String resolve(Context context, Uri uri) {
+            if (!DocumentsContract.isDocumentUri(context, uri)) {
+                return null;
+            }
+            final String docId = DocumentsContract.getDocumentId(uri);
+            final String[] split = docId.split(":");
+            final String type = split[0];
+            if ("primary".equalsIgnoreCase(type)) {
+                return Environment.getExternalStorageDirectory() + "/" + split[1];
+            } else if ("home".equalsIgnoreCase(type)) {
+                return Environment.getExternalStorageDirectory() + "/documents/" + split[1];
+            }
+            return null;
+        }
+    }
+
+    /**
+     * com.android.providers.downloads.documents
+     */
+    private static class DownloadsDocumentResolver implements UriPathResolver {
+        @Override
+        public String resolve(Context context, Uri uri) {
+            if (!DocumentsContract.isDocumentUri(context, uri)) {
+                return null;
+            }
+            final String id = DocumentsContract.getDocumentId(uri);
+            if (id.startsWith("raw:")) {
+                return id.substring(4);
+            }
+            String realPath = null;
+            if (isNumeric(id)) {
+                realPath = queryDownloadsPath(context, Long.parseLong(id));
+            }
+            if (TextUtils.isEmpty(realPath)) {
+                // path could not be retrieved using ContentResolver, therefore copy file to accessible cache using streams
+                // 同一个文件重复选择时直接复用之前的拷贝
+                File file = DocumentCache.getOrCopy(context, uri, id, getFileName(context, uri, id));
+                if (file != null) {
+                    realPath = file.getAbsolutePath();
+                }
+            }
+            return realPath;
+        }
+    }
+
+    /**
+     * com.android.providers.media.documents
+     */
+    private static class MediaDocumentResolver implements UriPathResolver {
+        @Override
+        public String resolve(Context context, Uri uri) {
+            if (!DocumentsContract.isDocumentUri(context, uri)) {
+                return null;
+            }
+            final String docId = DocumentsContract.getDocumentId(uri);
+            final String[] split = docId.split(":");
+            final Uri contentUri = getMediaContentUri(split[0]);
+            final String selection = "_id=?";
+            final String[] selectionArgs = new String[]{split[1]};
+            try {
+                return getDataColumn(context, contentUri, selection, selectionArgs);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * ES文件浏览器
+     */
+    private static class EsFileExplorerResolver implements UriPathResolver {
+        @Override
+        public String resolve(Context context, Uri uri) {
+            final String path = uri.getPath();
+            if (path != null) {
+                final String[] split = path.split(":");
+                if (split.length > 1) {
+                    return Environment.getExternalStorageDirectory() + "/" + split[1];
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * QQ浏览器
+     */
+    private static class QQBrowserResolver implements UriPathResolver {
+        @Override
+        public String resolve(Context context, Uri uri) {
+            final String path = uri.getPath();
+            if (path != null) {
+                final String[] split = path.split("QQBrowser");
+                if (split.length > 1) {
+                    return Environment.getExternalStorageDirectory() + split[1];
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Google相册
+     */
+    private static class GooglePhotosResolver implements UriPathResolver {
+        @Override
+        public String resolve(Context context, Uri uri) {
+            return uri.getLastPathSegment();
+        }
+    }
+
+    /**
+     * 兜底：直接查 _data 列
+     */
+    private static class QueryRealPathResolver implements UriPathResolver {
+        @Override
+        public String resolve(Context context, Uri uri) {
+            return queryRealPath(context, uri);
+        }
+    }
+
+    /**
+     * 获取文件信息（名称、大小、类型、修改时间），一次最小化查询，按 Uri 缓存
+     */
+    public static FileMeta getFileMeta(@NonNull Context context, @NonNull Uri uri) {
+        ensurePathCacheObserver(context);
+        return FileMeta.get(context, uri);
+    }
+
+    /**
+     * 不解析真实路径，直接按流/通道/文件描述符访问 Uri 内容
+     * 只是读取内容（上传、解码）时优先用这个，避免解析路径和拷贝到缓存
+     */
+    public static UriSource openSource(@NonNull Context context, @NonNull Uri uri) {
+        Context appContext = context.getApplicationContext();
+        return new UriSource(appContext != null ? appContext : context, uri);
+    }
+
+    /**
+     * 以只读内存映射的方式打开 Uri，适合需要随机访问的大文件（视频、压缩包等）
+     * Uri 必须对应一个可 seek 的普通文件，管道类的 provider 会抛 IOException
+     */
+    public static MappedUriFile map(@NonNull Context context, @NonNull Uri uri) throws IOException {
+        return map(context, uri, MappedUriFile.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize 窗口大小，超过这个大小的文件按窗口分段映射
+     */
+    public static MappedUriFile map(@NonNull Context context, @NonNull Uri uri, long windowSize) throws IOException {
+        return new MappedUriFile(context, uri, windowSize);
+    }
+
+    /**
+     * 批量获取真实路径，返回的 List 与传入的顺序一一对应，解析不到的位置为 null
+     * 媒体库文档按 image/video/audio/files 分组，每组一次 _id IN (...) 查询；
+     * Downloads 文档按 id 逐条查询（DownloadProvider 不支持集合查询），其余的 Uri 逐个走 {@link #getFileRealPath(Context, Uri)}
+     */
+    public static List<String> getFileRealPaths(final Context context, final List<Uri> uris) {
+        if (uris == null) {
+            return new ArrayList<>();
+        }
+        final List<String> result = new ArrayList<>(uris.size());
+        for (int i = 0; i < uris.size(); i++) {
+            result.add(null);
+        }
+        if (context == null) {
+            Log.e(TAG, "getFileRealPaths current activity is null.");
+            return result;
+        }
+        ensurePathCacheObserver(context);
+
+        // 集合Uri -> (id -> 在结果中的位置)
+        final Map<Uri, Map<String, List<Integer>>> mediaGroups = new LinkedHashMap<>();
+        final Map<String, List<Integer>> downloadIds = new LinkedHashMap<>();
+        final List<Integer> others = new ArrayList<>();
+        for (int i = 0; i < uris.size(); i++) {
+            Uri uri = uris.get(i);
+            if (uri == null) {
+                continue;
+            }
+            String cached = sPathCache.get(uri);
+            if (cached != null) {
+                result.set(i, cached);
+                continue;
+            }
+            try {
+                // 只有内置解析器生效时才走批量查询，被覆盖的交给注册的解析器
+                if (DocumentsContract.isDocumentUri(context, uri)) {
+                    if (isBuiltInResolver(uri, MediaDocumentResolver.class)) {
+                        final String[] split = DocumentsContract.getDocumentId(uri).split(":");
+                        if (split.length > 1) {
+                            Uri contentUri = getMediaContentUri(split[0]);
+                            Map<String, List<Integer>> group = mediaGroups.get(contentUri);
+                            if (group == null) {
+                                group = new LinkedHashMap<>();
+                                mediaGroups.put(contentUri, group);
                             }
+                            addIndex(group, split[1], i);
+                            continue;
                         }
-                        if (TextUtils.isEmpty(realPath)) {
-                            // path could not be retrieved using ContentResolver, therefore copy file to accessible cache using streams
-                            String fileName = getFileName(context, uri, id);
-                            File cacheDir = new File(context.getCacheDir(), "documents");
-                            if (!cacheDir.exists()) {
-                                cacheDir.mkdirs();
-                            }
-                            File file = generateFileName(fileName, cacheDir);
-                            if (file != null) {
-                                realPath = file.getAbsolutePath();
-                                saveFileFromUri(context, uri, realPath);
-                            }
+                    } else if (isBuiltInResolver(uri, DownloadsDocumentResolver.class)) {
+                        final String id = DocumentsContract.getDocumentId(uri);
+                        if (isNumeric(id)) {
+                            addIndex(downloadIds, id, i);
+                            continue;
                         }
                     }
-                } else if ("com.android.providers.media.documents".equals(uri.getAuthority())) {
-                    final String docId = DocumentsContract.getDocumentId(uri);
-                    final String[] split = docId.split(":");
-                    final String type = split[0];
-                    Uri contentUri;
-                    if ("image".equals(type)) {
-                        contentUri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
-                    } else if ("video".equals(type)) {
-                        contentUri = MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
-                    } else if ("audio".equals(type)) {
-                        contentUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-                    } else {
-                        contentUri = MediaStore.Files.getContentUri("external");
-                    }
-                    final String selection = "_id=?";
-                    final String[] selectionArgs = new String[]{split[1]};
-                    try {
-                        realPath = getDataColumn(context, contentUri, selection, selectionArgs);
-                    } catch (Exception e) {
-                        e.printStackTrace();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            others.add(i);
+        }
+
+        for (Map.Entry<Uri, Map<String, List<Integer>>> entry : mediaGroups.entrySet()) {
+            Map<String, String> paths;
+            try {
+                paths = queryDataColumnByIds(context, entry.getKey(), entry.getValue().keySet());
+            } catch (Exception e) {
+                e.printStackTrace();
+                paths = Collections.emptyMap();
+            }
+            fillBatchResult(uris, result, entry.getValue(), paths, others);
+        }
+
+        if (!downloadIds.isEmpty()) {
+            // DownloadProvider 只接受 public_downloads/# 这样的单条 Uri，集合查询会抛 Unknown URI，
+            // my_downloads 按 UID 过滤、all_downloads 需要权限，批量查询基本查不到，这里按 id 逐条查询
+            Map<String, String> paths = new HashMap<>();
+            for (String id : downloadIds.keySet()) {
+                try {
+                    String path = queryDownloadsPath(context, Long.parseLong(id));
+                    if (path != null) {
+                        paths.put(id, path);
                     }
+                } catch (NumberFormatException e) {
+                    // 超出 long 范围，交给逐个解析
                 }
-            } else if (ContentResolver.SCHEME_FILE.equalsIgnoreCase(uri.getScheme())) {
-                realPath = uri.getPath();
-            } else if (isRootUri(uri)) {
-                String[] pathArr = uri.toString().split("root");
-                if (pathArr.length > 1) {
-                    realPath = pathArr[1];
+            }
+            fillBatchResult(uris, result, downloadIds, paths, others);
+        }
+
+        // 批量查询覆盖不到的，逐个解析（包括需要拷贝到缓存的情况）
+        for (Integer index : others) {
+            result.set(index, getFileRealPath(context, uris.get(index)));
+        }
+        return result;
+    }
+
+    /**
+     * 把批量查询的结果填回去，查不到的交给逐个解析
+     */
+    private static void fillBatchResult(List<Uri> uris, List<String> result, Map<String, List<Integer>> group,
+                                        Map<String, String> paths, List<Integer> others) {
+        for (Map.Entry<String, List<Integer>> idEntry : group.entrySet()) {
+            String path = paths.get(idEntry.getKey());
+            for (Integer index : idEntry.getValue()) {
+                if (TextUtils.isEmpty(path)) {
+                    others.add(index);
+                } else {
+                    result.set(index, path);
+                    putPath(uris.get(index), path);
                 }
-            } else if ("es.fileexplorer.filebrowser.ezfilemanager.externalstorage.documents".equals(uri.getAuthority())) {
-                final String path = uri.getPath();
-                if (path != null) {
-                    final String[] split = path.split(":");
-                    if (split.length > 1) {
-                        realPath = Environment.getExternalStorageDirectory() + "/" + split[1];
+            }
+        }
+    }
+
+    private static boolean isBuiltInResolver(Uri uri, Class<? extends UriPathResolver> type) {
+        final String authority = uri.getAuthority();
+        final ResolverStats resolver = authority == null ? null : sResolvers.get(authority);
+        return resolver != null && resolver.resolver.getClass() == type;
+    }
+
+    private static void addIndex(Map<String, List<Integer>> group, String id, int index) {
+        List<Integer> indexes = group.get(id);
+        if (indexes == null) {
+            indexes = new ArrayList<>(1);
+            group.put(id, indexes);
+        }
+        indexes.add(index);
+    }
+
+    private static boolean isNumeric(String id) {
+        if (TextUtils.isEmpty(id)) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (!Character.isDigit(id.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按 _id IN (...) 批量查询 _data 列，参数过多时分批
+     *
+     * @return id -> 路径
+     */
+    private static Map<String, String> queryDataColumnByIds(Context context, Uri contentUri, Collection<String> ids) throws Exception {
+        final Map<String, String> paths = new HashMap<>();
+        final List<String> idList = new ArrayList<>(ids);
+        final String[] projection = {MediaStore.Files.FileColumns._ID, MediaStore.Files.FileColumns.DATA};
+        for (int start = 0; start < idList.size(); start += MAX_QUERY_ARGS) {
+            List<String> chunk = idList.subList(start, Math.min(start + MAX_QUERY_ARGS, idList.size()));
+            StringBuilder selection = new StringBuilder(MediaStore.Files.FileColumns._ID).append(" IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                selection.append(i == 0 ? "?" : ",?");
+            }
+            selection.append(')');
+            Cursor cursor = null;
+            try {
+                cursor = context.getContentResolver().query(contentUri, projection, selection.toString(),
+                        chunk.toArray(new String[0]), null);
+                if (cursor != null) {
+                    int idIndex = cursor.getColumnIndex(MediaStore.Files.FileColumns._ID);
+                    int dataIndex = cursor.getColumnIndex(MediaStore.Files.FileColumns.DATA);
+                    while (cursor.moveToNext()) {
+                        paths.put(cursor.getString(idIndex), cursor.getString(dataIndex));
                     }
                 }
-            } else if ("com.tencent.mtt.fileprovider".equals(uri.getAuthority())) {
-                final String path = uri.getPath();
-                if (path != null) {
-                    final String[] split = path.split("QQBrowser");
-                    if (split.length > 1) {
-                        realPath = Environment.getExternalStorageDirectory() + split[1];
-                    }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
                 }
-            } else if ("com.google.android.apps.photos.content".equals(uri.getAuthority())) {
-                return uri.getLastPathSegment();
             }
+        }
+        return paths;
+    }
 
+    /**
+     * 按 Downloads 的 id 查询真实路径，命中一个前缀就停止，并记住这个前缀
+     */
+    private static String queryDownloadsPath(Context context, long id) {
+        for (String prefix : getDownloadsPrefixesToTry()) {
+            try {
+                final Uri contentUri = ContentUris.withAppendedId(Uri.parse(prefix), id);
+                String path = getDataColumn(context, contentUri, null, null);
+                if (!TextUtils.isEmpty(path)) {
+                    sWorkingDownloadsPrefix = prefix;
+                    return path;
+                }
+            } catch (Exception e) {
+                onDownloadsPrefixError(prefix, e);
+            }
         }
-        // 终极路径查询....
-        if (TextUtils.isEmpty(realPath)) {
-            realPath = queryRealPath(context, uri);
+        return null;
+    }
+
+    /**
+     * 需要尝试的 Downloads 前缀：成功过的排第一，不支持的跳过
+     */
+    private static List<String> getDownloadsPrefixesToTry() {
+        final String working = sWorkingDownloadsPrefix;
+        final List<String> prefixes = new ArrayList<>(DOWNLOADS_CONTENT_URI_PREFIXES.length);
+        if (working != null) {
+            prefixes.add(working);
         }
-        return realPath;
+        for (String prefix : DOWNLOADS_CONTENT_URI_PREFIXES) {
+            if (!prefix.equals(working) && !sDeadDownloadsPrefixes.contains(prefix)) {
+                prefixes.add(prefix);
+            }
+        }
+        return prefixes;
+    }
+
+    /**
+     * 只有 "Unknown URI" 的 IllegalArgumentException 说明这个前缀在本机不存在，才永久跳过
+     * 单条记录没有权限、provider 临时出错等不改变前缀的状态
+     */
+    private static void onDownloadsPrefixError(String prefix, Exception e) {
+        if (e instanceof IllegalArgumentException && e.getMessage() != null
+                && e.getMessage().startsWith("Unknown URI")) {
+            markDownloadsPrefixDead(prefix, e);
+        } else {
+            Log.w(TAG, "query downloads failed: " + prefix + ", " + e);
+        }
+    }
+
+    private static void markDownloadsPrefixDead(String prefix, Exception e) {
+        if (sDeadDownloadsPrefixes.add(prefix)) {
+            Log.w(TAG, "downloads prefix not supported on this device: " + prefix + ", " + e);
+        }
+        if (prefix.equals(sWorkingDownloadsPrefix)) {
+            sWorkingDownloadsPrefix = null;
+        }
+    }
+
+    /**
+     * 媒体文档类型对应的 MediaStore 集合
+     */
+    private static Uri getMediaContentUri(String type) {
+        if ("image".equals(type)) {
+            return MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+        } else if ("video".equals(type)) {
+            return MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
+        } else if ("audio".equals(type)) {
+            return MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        }
+        return MediaStore.Files.getContentUri("external");
     }
 
     /**
@@ -440,92 +1088,83 @@ public class FileUriUtils {
      * 获取文件名字
      */
     private static String getFileName(@NonNull Context context, Uri uri, String id) {
-        String mimeType = context.getContentResolver().getType(uri);
-        String filename = null;
-        if (mimeType == null) {
-            filename = id;
-        } else {
-            Cursor returnCursor = context.getContentResolver().query(uri, null,
-                    null, null, null);
-            if (returnCursor != null) {
-                int nameIndex = returnCursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                returnCursor.moveToFirst();
-                filename = returnCursor.getString(nameIndex);
-                returnCursor.close();
-            }
-        }
-        return filename;
+        String filename = FileMeta.get(context, uri).getDisplayName();
+        return filename != null ? filename : id;
     }
 
     /**
      * 创建文件，名字有就增加 (1 ++)
+     * 序号来自内存中的计数器（每个目录+文件名第一次冲突时扫描一次目录初始化），
+     * 不再逐个 exists() 探测；createNewFile 是原子的，多线程同时调用也不会拿到同一个文件
      */
     public static File generateFileName(@Nullable String name, File directory) {
         if (name == null) {
             return null;
         }
         File file = new File(directory, name);
-        if (file.exists()) {
-            String fileName = name;
-            String extension = "";
-            int dotIndex = name.lastIndexOf('.');
-            if (dotIndex > 0) {
-                fileName = name.substring(0, dotIndex);
-                extension = name.substring(dotIndex);
-            }
-            int index = 0;
-            while (file.exists()) {
-                index++;
-                name = fileName + '(' + index + ')' + extension;
-                file = new File(directory, name);
-            }
-        }
         try {
-            if (!file.createNewFile()) {
-                return null;
+            if (file.createNewFile()) {
+                return file;
             }
         } catch (IOException e) {
             Log.w(TAG, e);
             return null;
         }
-        return file;
+        String fileName = name;
+        String extension = "";
+        int dotIndex = name.lastIndexOf('.');
+        if (dotIndex > 0) {
+            fileName = name.substring(0, dotIndex);
+            extension = name.substring(dotIndex);
+        }
+        final AtomicInteger counter = getNameCounter(directory, name, fileName, extension);
+        // 计数器之外被别人创建了文件（比如其他进程），重试几次
+        for (int attempt = 0; attempt < MAX_GENERATE_NAME_ATTEMPTS; attempt++) {
+            file = new File(directory, fileName + '(' + counter.incrementAndGet() + ')' + extension);
+            try {
+                if (file.createNewFile()) {
+                    return file;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, e);
+                return null;
+            }
+        }
+        return null;
     }
 
     /**
-     * 拷贝文件到缓存中
+     * 获取 目录+文件名 的序号计数器，第一次时用一次 list() 找出已有的最大序号
      */
-    private static void saveFileFromUri(Context context, Uri uri, String destinationPath) {
-        InputStream is = null;
-        BufferedOutputStream bos = null;
-        try {
-            is = context.getContentResolver().openInputStream(uri);
-            bos = new BufferedOutputStream(new FileOutputStream(destinationPath, false));
-            byte[] buf = new byte[1024];
-            if (is != null) {
-                is.read(buf);
-                do {
-                    bos.write(buf);
-                } while (is.read(buf) != -1);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                if (is != null) {
-                    is.close();
-                }
-                if (bos != null) {
-                    bos.close();
+    private static AtomicInteger getNameCounter(File directory, String name, String fileName, String extension) {
+        final String key = directory.getAbsolutePath() + File.separator + name;
+        AtomicInteger counter = sNameCounters.get(key);
+        if (counter != null) {
+            return counter;
+        }
+        int max = 0;
+        final String[] names = directory.list();
+        if (names != null) {
+            final String prefix = fileName + '(';
+            final String suffix = ')' + extension;
+            for (String existing : names) {
+                if (existing.length() > prefix.length() + suffix.length()
+                        && existing.startsWith(prefix) && existing.endsWith(suffix)) {
+                    String index = existing.substring(prefix.length(), existing.length() - suffix.length());
+                    if (isNumeric(index) && index.length() < 10) {
+                        max = Math.max(max, Integer.parseInt(index));
+                    }
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
             }
         }
+        counter = new AtomicInteger(max);
+        AtomicInteger previous = sNameCounters.putIfAbsent(key, counter);
+        return previous != null ? previous : counter;
     }
 
-
     /**
      * 保存bitmap为图片 并返回Uri
+     * 按 JPEG 质量 100 保存，需要指定格式和质量时使用 {@link #saveBitmapAndReturnUri(Context, Bitmap, String, Bitmap.CompressFormat, int, boolean)}
      *
      * @param context  上下文
      * @param bitmap   Bitmap
@@ -533,6 +1172,39 @@ public class FileUriUtils {
      * @return Uri
      */
     public static Uri saveBitmapAndReturnUri(Context context, Bitmap bitmap, String fileName) {
+        return saveBitmapAndReturnUri(context, bitmap, fileName, Bitmap.CompressFormat.JPEG, 100, false);
+    }
+
+    /**
+     * 保存bitmap为图片 并返回Uri
+     * 返回 Uri 时可能查询或插入 MediaStore，不要在主线程调用，异步版本见 {@link FileUriAsync}
+     *
+     * @param context  上下文
+     * @param bitmap   Bitmap
+     * @param fileName 文件名字，后缀需要与格式一致
+     * @param format   格式
+     * @param quality  质量 0-100，PNG 忽略
+     * @param fsync    是否等数据写入磁盘后再返回，一般不需要
+     * @return Uri，失败返回 null
+     */
+    @WorkerThread
+    public static Uri saveBitmapAndReturnUri(Context context, Bitmap bitmap, String fileName,
+                                             Bitmap.CompressFormat format, int quality, boolean fsync) {
+        File destFile = saveBitmap(context, bitmap, fileName, format, quality, fsync);
+        if (destFile == null) {
+            return null;
+        }
+        return getUri(context, ContentType.IMAGE, destFile);
+    }
+
+    /**
+     * 保存bitmap到 app ExternalFileDir/Pictures 下
+     * 编码结果经过复用的缓冲数组直接写入文件，不在内存中保留整张图的编码结果
+     *
+     * @return 文件，失败返回 null
+     */
+    static File saveBitmap(Context context, Bitmap bitmap, String fileName,
+                           Bitmap.CompressFormat format, int quality, boolean fsync) {
         if (null == bitmap) {
             return null;
         }
@@ -541,17 +1213,35 @@ public class FileUriUtils {
             fileDir.mkdirs();
         }
         File destFile = new File(fileDir, fileName);
+        OutputStream os = null;
+        boolean success = false;
         try {
-            BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(destFile));
-            //压缩保存到本地
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, bos);
-            bos.flush();
-            bos.close();
+            FileOutputStream fos = new FileOutputStream(destFile);
+            os = OutputBufferPool.wrap(fos);
+            if (!bitmap.compress(ImageCompressor.toPlatformFormat(format), quality, os)) {
+                throw new IOException("Compress failed: " + destFile);
+            }
+            os.flush();
+            if (fsync) {
+                fos.getFD().sync();
+            }
+            success = true;
         } catch (IOException e) {
             e.printStackTrace();
-            return null;
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    success = false;
+                }
+            }
+            if (!success) {
+                destFile.delete();
+            }
         }
-        return getUri(context, ContentType.IMAGE, destFile);
+        return success ? destFile : null;
     }
 
     /**
@@ -0,0 +1,206 @@
+package com.pichs.filechooser;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 选择图片后的压缩：按最长边采样解码，编码成指定格式，设置了目标大小时二分查找质量
+ * 查找质量时只统计大小，最终结果直接编码写入 cacheDir/compressed（由 {@link FileStorageManager} 管理）
+ * 同一个文件、同样的参数再次压缩时直接返回已有的结果
+ */
+@SuppressWarnings("ALL")
+public class ImageCompressor {
+
+    private static final String TAG = "ImageCompressor";
+
+    static final String DIR_NAME = "compressed";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private ImageCompressor() {
+    }
+
+    /**
+     * 缓存目录
+     */
+    public static File getCacheDir(@NonNull Context context) {
+        return new File(context.getCacheDir(), DIR_NAME);
+    }
+
+    /**
+     * 压缩图片，不要在主线程调用
+     *
+     * @param context 上下文
+     * @param uri     图片 Uri
+     * @param options 压缩参数
+     * @return 压缩后的文件
+     */
+    @NonNull
+    @WorkerThread
+    public static File compress(@NonNull Context context, @NonNull Uri uri, @NonNull CompressOptions options) throws IOException {
+        final File dir = getCacheDir(context);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        final FileMeta meta = FileMeta.query(context, uri);
+        // 拿不到大小或修改时间时无法判断是不是同一个文件，不复用（应用自己的 FileProvider 没有修改时间，内容可能被覆盖）
+        final boolean stable = meta.getSize() >= 0 && meta.getLastModified() > 0;
+        final String identity = stable
+                ? uri + "/" + meta.getSize() + "/" + meta.getLastModified()
+                : uri + "/" + System.nanoTime();
+        final File target = new File(dir, DocumentCache.hashKey(identity + "/" + options.toKey()) + getExtension(options.getFormat()));
+        if (stable && target.isFile() && target.length() > 0) {
+            target.setLastModified(System.currentTimeMillis());
+            return target;
+        }
+
+        final int maxDimension = options.getMaxDimension();
+        final Bitmap bitmap = BitmapDecoder.decode(context, uri, maxDimension, maxDimension, Bitmap.Config.ARGB_8888);
+        if (bitmap == null) {
+            throw new IOException("Can't decode " + uri);
+        }
+        try {
+            final Bitmap.CompressFormat format = toPlatformFormat(options.getFormat());
+            write(bitmap, format, chooseQuality(bitmap, format, options), dir, target);
+        } finally {
+            if (bitmap.isMutable()) {
+                BitmapPool.get().put(bitmap);
+            } else {
+                bitmap.recycle();
+            }
+        }
+        return target;
+    }
+
+    /**
+     * 输出用的质量：有目标大小时在 [minQuality, quality] 之间二分查找不超过目标大小的最高质量
+     * 查找时只统计编码后的字节数，不保存编码结果，内存占用和图片大小无关，确定质量后再编码一次写入文件
+     */
+    private static int chooseQuality(Bitmap bitmap, Bitmap.CompressFormat format, CompressOptions options) throws IOException {
+        final long targetBytes = options.getTargetBytes();
+        final int quality = options.getQuality();
+        if (targetBytes <= 0 || isLossless(format) || measure(bitmap, format, quality) <= targetBytes) {
+            return quality;
+        }
+        int low = options.getMinQuality();
+        int high = quality - 1;
+        final long minSize = measure(bitmap, format, low);
+        if (minSize > targetBytes) {
+            Log.w(TAG, "can't reach " + targetBytes + " bytes, use minQuality " + low + ": " + minSize + " bytes");
+            return low;
+        }
+        // low 一定满足，找满足的最大值
+        int best = low;
+        low++;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (measure(bitmap, format, mid) <= targetBytes) {
+                best = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 按这个质量编码后的字节数
+     */
+    private static long measure(Bitmap bitmap, Bitmap.CompressFormat format, int quality) throws IOException {
+        final CountingOutputStream counter = new CountingOutputStream();
+        if (!bitmap.compress(format, quality, counter)) {
+            throw new IOException("Compress failed: " + format + " " + quality);
+        }
+        return counter.count;
+    }
+
+    /**
+     * 编码直接写入临时文件再改名，中途失败不会留下不完整的结果
+     */
+    private static void write(Bitmap bitmap, Bitmap.CompressFormat format, int quality, File dir, File target) throws IOException {
+        final File tmp = new File(dir, target.getName() + "." + Thread.currentThread().getId() + TMP_SUFFIX);
+        boolean success = false;
+        OutputStream os = null;
+        try {
+            os = OutputBufferPool.wrap(new FileOutputStream(tmp));
+            if (!bitmap.compress(format, quality, os)) {
+                throw new IOException("Compress failed: " + format + " " + quality);
+            }
+            os.close();
+            os = null;
+            if (!tmp.renameTo(target)) {
+                throw new IOException("Rename failed: " + target);
+            }
+            success = true;
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (!success) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * 只计数不保存
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    /**
+     * 11.0 开始 WEBP 已废弃，按有损处理
+     */
+    static Bitmap.CompressFormat toPlatformFormat(Bitmap.CompressFormat format) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && format == Bitmap.CompressFormat.WEBP) {
+            return Bitmap.CompressFormat.WEBP_LOSSY;
+        }
+        return format;
+    }
+
+    /**
+     * 无损格式的质量不影响大小，不做查找；WEBP_LOSSLESS 在 11.0 以下不存在，按名字判断
+     */
+    private static boolean isLossless(Bitmap.CompressFormat format) {
+        return format == Bitmap.CompressFormat.PNG || "WEBP_LOSSLESS".equals(format.name());
+    }
+
+    static String getExtension(Bitmap.CompressFormat format) {
+        switch (format) {
+            case PNG:
+                return ".png";
+            case JPEG:
+                return ".jpg";
+            default:
+                return ".webp";
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.pichs.filechooser;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 剪裁：只解码原图中选中的区域（BitmapRegionDecoder，按输出尺寸采样），缩放到输出尺寸后只编码一次
+ * 不经过整张原图的解码，也不需要系统的剪裁界面
+ */
+@SuppressWarnings("ALL")
+public class ImageCropper {
+
+    public static final int DEFAULT_QUALITY = 90;
+
+    private ImageCropper() {
+    }
+
+    /**
+     * 剪裁并写入文件
+     *
+     * @param cropRect  剪裁区域，按 EXIF 方向摆正后的原图坐标
+     * @param outWidth  输出宽度，宽高任一 <= 0 时按区域原尺寸输出
+     * @param outHeight 输出高度
+     * @param output    输出文件
+     */
+    @WorkerThread
+    public static void crop(@NonNull Context context, @NonNull Uri source, @NonNull Rect cropRect,
+                            int outWidth, int outHeight, @NonNull File output,
+                            @NonNull Bitmap.CompressFormat format, int quality) throws IOException {
+        TiledImage image = TiledImage.open(context, source, Bitmap.Config.ARGB_8888);
+        try {
+            crop(image, cropRect, outWidth, outHeight, output, format, quality);
+        } finally {
+            image.close();
+        }
+    }
+
+    /**
+     * 用已经打开的 {@link TiledImage} 剪裁，剪裁界面预览时已经打开过，不需要重新读取头信息
+     */
+    @WorkerThread
+    public static void crop(@NonNull TiledImage image, @NonNull Rect cropRect,
+                            int outWidth, int outHeight, @NonNull File output,
+                            @NonNull Bitmap.CompressFormat format, int quality) throws IOException {
+        final Rect rect = new Rect(cropRect);
+        if (!rect.intersect(0, 0, image.getWidth(), image.getHeight()) || rect.isEmpty()) {
+            throw new IOException("Crop rect is out of image bounds: " + cropRect);
+        }
+        if (outWidth <= 0 || outHeight <= 0) {
+            outWidth = rect.width();
+            outHeight = rect.height();
+        }
+        // 采样后仍不小于输出尺寸，剩下的交给一次精确缩放
+        final int sampleSize = BitmapDecoder.calculateInSampleSize(rect.width(), rect.height(), outWidth, outHeight);
+        Bitmap bitmap = image.decodeRegion(rect, sampleSize);
+        if (bitmap == null) {
+            throw new IOException("Can't decode region of " + image.getUri());
+        }
+        if (bitmap.getWidth() != outWidth || bitmap.getHeight() != outHeight) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, outWidth, outHeight, true);
+            if (scaled != bitmap) {
+                release(bitmap);
+            }
+            bitmap = scaled;
+        }
+        try {
+            write(bitmap, output, format, quality);
+        } finally {
+            release(bitmap);
+        }
+    }
+
+    private static void write(Bitmap bitmap, File output, Bitmap.CompressFormat format, int quality) throws IOException {
+        File parent = output.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        boolean success = false;
+        OutputStream os = null;
+        try {
+            os = new BufferedOutputStream(new FileOutputStream(output), 64 * 1024);
+            if (!bitmap.compress(format, quality, os)) {
+                throw new IOException("Compress failed: " + output);
+            }
+            os.flush();
+            success = true;
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (!success) {
+                output.delete();
+            }
+        }
+    }
+
+    /**
+     * 剪裁过程中的 Bitmap 都不会再用，能复用的放回池子
+     */
+    private static void release(Bitmap bitmap) {
+        if (bitmap.isMutable()) {
+            BitmapPool.get().put(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.pichs.filechooser;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 以只读内存映射的方式访问选中的大文件，不需要拷贝到堆内存
+ * 超过 2GB 的文件按窗口映射，同时最多保留 {@link #MAX_WINDOWS} 个窗口
+ * 只在内部读取用过的窗口被淘汰时立即解除映射；通过 {@link #window(long)}、{@link #map(long, long)} 交给调用方的映射
+ * 保留到 {@link #close()} 时才解除（系统不支持立即解除时交给 GC）
+ * <p>
+ * 注意：close() 之后不要再访问之前拿到的 ByteBuffer，解除映射后访问会导致崩溃，可以用 {@link #isClosed()} 判断
+ * <p>
+ * MappedUriFile file = FileUriUtils.map(context, uri);
+ * try {
+ * byte[] header = new byte[16];
+ * file.read(0, header, 0, header.length);
+ * } finally {
+ * file.close();
+ * }
+ */
+@SuppressWarnings("ALL")
+public class MappedUriFile implements Closeable {
+
+    private static final String TAG = "MappedUriFile";
+
+    /**
+     * 默认窗口大小
+     */
+    public static final long DEFAULT_WINDOW_SIZE = 256L * 1024 * 1024;
+
+    /**
+     * 同时保留的窗口数
+     */
+    public static final int MAX_WINDOWS = 2;
+
+    private static volatile Method sFreeMethod;
+    private static volatile boolean sFreeMethodResolved;
+
+    private final ParcelFileDescriptor mFileDescriptor;
+    private final FileInputStream mInputStream;
+    private final FileChannel mChannel;
+    private final long mSize;
+    private final long mWindowSize;
+
+    /**
+     * 窗口起始位置 -> 映射，按访问顺序排列
+     */
+    private final LinkedHashMap<Long, MappedByteBuffer> mWindows = new LinkedHashMap<>(4, 0.75f, true);
+
+    /**
+     * map() 直接映射出去的区域，close() 时统一解除
+     */
+    private final List<MappedByteBuffer> mRegions = new ArrayList<>();
+
+    /**
+     * 交给过调用方的窗口，淘汰时不能解除映射
+     */
+    private final Set<MappedByteBuffer> mHandedOut = Collections.newSetFromMap(new IdentityHashMap<MappedByteBuffer, Boolean>());
+
+    /**
+     * 已淘汰但交给过调用方的窗口，close() 时解除
+     */
+    private final List<MappedByteBuffer> mRetired = new ArrayList<>();
+
+    private boolean mClosed;
+
+    MappedUriFile(@NonNull Context context, @NonNull Uri uri, long windowSize) throws IOException {
+        if (windowSize <= 0 || windowSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("windowSize must be in (0, Integer.MAX_VALUE]");
+        }
+        mFileDescriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+        if (mFileDescriptor == null) {
+            throw new FileNotFoundException("can't open " + uri);
+        }
+        try {
+            mInputStream = new FileInputStream(mFileDescriptor.getFileDescriptor());
+            mChannel = mInputStream.getChannel();
+            mSize = mChannel.size();
+        } catch (IOException e) {
+            mFileDescriptor.close();
+            throw e;
+        }
+        mWindowSize = windowSize;
+    }
+
+    /**
+     * 文件大小
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    public long getWindowSize() {
+        return mWindowSize;
+    }
+
+    /**
+     * 映射指定区域，区域不能超过 2GB，随 close() 一起解除映射
+     */
+    @NonNull
+    public synchronized MappedByteBuffer map(long position, long length) throws IOException {
+        checkNotClosed();
+        if (position < 0 || length < 0 || length > Integer.MAX_VALUE || position + length > mSize) {
+            throw new IllegalArgumentException("invalid region: " + position + "+" + length + ", size=" + mSize);
+        }
+        MappedByteBuffer buffer = mChannel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        mRegions.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * 获取包含 position 的窗口，返回的 buffer 是窗口的只读副本，position 已定位到目标位置，limit 为窗口结尾
+     * 窗口被淘汰后副本仍然可用，直到 close()
+     */
+    @NonNull
+    public synchronized ByteBuffer window(long position) throws IOException {
+        return view(position, true);
+    }
+
+    private ByteBuffer view(long position, boolean handOut) throws IOException {
+        checkNotClosed();
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + mSize);
+        }
+        final long start = position - position % mWindowSize;
+        MappedByteBuffer window = mWindows.get(start);
+        if (window == null) {
+            window = mChannel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(mWindowSize, mSize - start));
+            mWindows.put(start, window);
+            trimWindows();
+        }
+        if (handOut) {
+            mHandedOut.add(window);
+        }
+        ByteBuffer view = window.asReadOnlyBuffer();
+        view.position((int) (position - start));
+        return view;
+    }
+
+    /**
+     * 读取任意位置的数据，可以跨窗口
+     *
+     * @return 实际读取的字节数，已到文件结尾返回 -1
+     */
+    public synchronized int read(long position, @NonNull byte[] dst, int offset, int length) throws IOException {
+        if (position >= mSize) {
+            return -1;
+        }
+        int total = 0;
+        while (total < length && position < mSize) {
+            ByteBuffer view = view(position, false);
+            int count = Math.min(length - total, view.remaining());
+            view.get(dst, offset + total, count);
+            total += count;
+            position += count;
+        }
+        return total;
+    }
+
+    /**
+     * 读取一个字节
+     */
+    public synchronized byte get(long position) throws IOException {
+        return view(position, false).get();
+    }
+
+    private void trimWindows() {
+        while (mWindows.size() > MAX_WINDOWS) {
+            Map.Entry<Long, MappedByteBuffer> eldest = mWindows.entrySet().iterator().next();
+            mWindows.remove(eldest.getKey());
+            MappedByteBuffer window = eldest.getValue();
+            if (mHandedOut.remove(window)) {
+                // 调用方可能还拿着副本，立即解除映射会在访问时崩溃
+                mRetired.add(window);
+            } else {
+                unmap(window);
+            }
+        }
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (mClosed) {
+            throw new IOException("MappedUriFile is closed");
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        for (MappedByteBuffer window : mWindows.values()) {
+            unmap(window);
+        }
+        mWindows.clear();
+        for (MappedByteBuffer region : mRegions) {
+            unmap(region);
+        }
+        mRegions.clear();
+        for (MappedByteBuffer window : mRetired) {
+            unmap(window);
+        }
+        mRetired.clear();
+        mHandedOut.clear();
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            mFileDescriptor.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 立即解除映射，没有公开 API，反射 java.nio.NioUtils.freeDirectBuffer，
+     * 拿不到或被 9.0 起的隐藏 API 限制拦截时只能等 GC
+     */
+    private static void unmap(ByteBuffer buffer) {
+        if (!sFreeMethodResolved) {
+            synchronized (MappedUriFile.class) {
+                if (!sFreeMethodResolved) {
+                    try {
+                        Class<?> clazz = Class.forName("java.nio.NioUtils");
+                        sFreeMethod = clazz.getMethod("freeDirectBuffer", ByteBuffer.class);
+                    } catch (Throwable e) {
+                        Log.w(TAG, "unmap not supported, mappings are released by GC: " + e);
+                    }
+                    sFreeMethodResolved = true;
+                }
+            }
+        }
+        if (sFreeMethod == null) {
+            return;
+        }
+        try {
+            sFreeMethod.invoke(null, buffer);
+        } catch (Throwable e) {
+            Log.w(TAG, "unmap failed: " + e);
+            sFreeMethod = null;
+        }
+    }
+}
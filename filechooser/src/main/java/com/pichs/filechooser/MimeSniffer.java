@@ -0,0 +1,200 @@
+package com.pichs.filechooser;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 按文件头（魔数）判断文件类型，只读前 {@link #HEADER_SIZE} 个字节
+ * 不依赖后缀名，没有后缀、后缀写错的文件也能识别
+ * 结果按 Uri 缓存（MediaStore/Downloads 有变化时失效）
+ */
+@SuppressWarnings("ALL")
+public class MimeSniffer {
+
+    public static final String MIME_JPEG = "image/jpeg";
+    public static final String MIME_PNG = "image/png";
+    public static final String MIME_GIF = "image/gif";
+    public static final String MIME_WEBP = "image/webp";
+    public static final String MIME_BMP = "image/bmp";
+    public static final String MIME_HEIC = "image/heic";
+    public static final String MIME_HEIF = "image/heif";
+    public static final String MIME_AVIF = "image/avif";
+    public static final String MIME_MP4 = "video/mp4";
+    public static final String MIME_3GPP = "video/3gpp";
+    public static final String MIME_PDF = "application/pdf";
+    public static final String MIME_ZIP = "application/zip";
+
+    /**
+     * 需要读取的文件头长度
+     */
+    public static final int HEADER_SIZE = 32;
+
+    private static final int CACHE_SIZE = 256;
+
+    /**
+     * 缓存中表示“识别不了”，区分于没有缓存
+     */
+    private static final String UNKNOWN = "";
+
+    private static final LruCache<Uri, String> sCache = new LruCache<>(CACHE_SIZE);
+
+    private MimeSniffer() {
+    }
+
+    /**
+     * 读取 Uri 的文件头判断类型
+     *
+     * @return MIME 类型，识别不了或读取失败返回 null
+     */
+    @Nullable
+    public static String sniff(@NonNull Context context, @NonNull Uri uri) {
+        // 拍照、剪裁、压缩的输出会在同一个 Uri 下被重写，这些 Uri 不缓存，每次重新读文件头
+        final boolean cacheable = FileMeta.isCacheable(context, uri);
+        String cached = cacheable ? sCache.get(uri) : null;
+        if (cached != null) {
+            return cached == UNKNOWN ? null : cached;
+        }
+        final byte[] header = new byte[HEADER_SIZE];
+        int length;
+        InputStream is = null;
+        try {
+            is = context.getContentResolver().openInputStream(uri);
+            if (is == null) {
+                return null;
+            }
+            length = readFully(is, header);
+        } catch (Exception e) {
+            e.printStackTrace();
+            // 读取失败不缓存，下次还可以再试
+            return null;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        String mime = sniff(header, length);
+        if (cacheable) {
+            sCache.put(uri, mime == null ? UNKNOWN : mime);
+        }
+        return mime;
+    }
+
+    /**
+     * 按文件头判断类型
+     *
+     * @param header 文件开头的字节
+     * @param length 有效长度
+     * @return MIME 类型，识别不了返回 null
+     */
+    @Nullable
+    public static String sniff(@NonNull byte[] header, int length) {
+        if (startsWith(header, length, 0, 0xFF, 0xD8, 0xFF)) {
+            return MIME_JPEG;
+        }
+        if (startsWith(header, length, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return MIME_PNG;
+        }
+        if (startsWith(header, length, 0, 'G', 'I', 'F', '8', '7', 'a')
+                || startsWith(header, length, 0, 'G', 'I', 'F', '8', '9', 'a')) {
+            return MIME_GIF;
+        }
+        if (startsWith(header, length, 0, 'R', 'I', 'F', 'F') && startsWith(header, length, 8, 'W', 'E', 'B', 'P')) {
+            return MIME_WEBP;
+        }
+        if (startsWith(header, length, 4, 'f', 't', 'y', 'p') && length >= 12) {
+            String brand = new String(header, 8, 4);
+            if ("heic".equals(brand) || "heix".equals(brand) || "hevc".equals(brand) || "hevx".equals(brand)
+                    || "heim".equals(brand) || "heis".equals(brand)) {
+                return MIME_HEIC;
+            }
+            if ("mif1".equals(brand) || "msf1".equals(brand)) {
+                return MIME_HEIF;
+            }
+            if ("avif".equals(brand) || "avis".equals(brand)) {
+                return MIME_AVIF;
+            }
+            if (brand.startsWith("3g")) {
+                return MIME_3GPP;
+            }
+            return MIME_MP4;
+        }
+        if (startsWith(header, length, 0, '%', 'P', 'D', 'F')) {
+            return MIME_PDF;
+        }
+        if (startsWith(header, length, 0, 'P', 'K', 0x03, 0x04)) {
+            return MIME_ZIP;
+        }
+        // BM 只有两个字节，放到最后判断，再校验一下保留字段为 0
+        if (startsWith(header, length, 0, 'B', 'M') && startsWith(header, length, 6, 0, 0, 0, 0)) {
+            return MIME_BMP;
+        }
+        return null;
+    }
+
+    /**
+     * 是否是图片
+     */
+    public static boolean isImage(@Nullable String mime) {
+        return mime != null && mime.startsWith("image/");
+    }
+
+    /**
+     * 当前系统能否解码（BitmapFactory / ImageDecoder）
+     * 只认识别得出的格式，svg、ico、psd 等其他 image/* 不能解码
+     * image/jpg、image/x-ms-bmp 是部分 provider 和 MimeTypeMap 给出的别名
+     */
+    public static boolean isDecodableImage(@Nullable String mime) {
+        if (!isImage(mime)) {
+            return false;
+        }
+        if (MIME_HEIC.equals(mime) || MIME_HEIF.equals(mime)) {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P;
+        }
+        if (MIME_AVIF.equals(mime)) {
+            return Build.VERSION.SDK_INT >= 31;
+        }
+        return MIME_JPEG.equals(mime) || MIME_PNG.equals(mime) || MIME_GIF.equals(mime)
+                || MIME_WEBP.equals(mime) || MIME_BMP.equals(mime)
+                || "image/jpg".equals(mime) || "image/x-ms-bmp".equals(mime);
+    }
+
+    static void clearCache() {
+        sCache.evictAll();
+    }
+
+    private static boolean startsWith(byte[] header, int length, int offset, int... signature) {
+        if (length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((header[offset + i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readFully(InputStream is, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = is.read(buffer, total, buffer.length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,132 @@
+package com.pichs.filechooser;
+
+import android.content.ComponentCallbacks2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+
+/**
+ * 编码用的输出缓冲区池：bitmap 编码时经过一块固定大小的复用数组直接写入文件
+ * 不需要把整张图编码到内存里再写出，内存占用和图片大小无关，每次写文件也不用重新分配缓冲区
+ */
+@SuppressWarnings("ALL")
+final class OutputBufferPool {
+
+    private static final int MAX_POOLED = FileUriAsync.POOL_SIZE;
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final ArrayDeque<byte[]> sPool = new ArrayDeque<>(MAX_POOLED);
+
+    private OutputBufferPool() {
+    }
+
+    /**
+     * 包装输出流，经过池中的数组缓冲写入，关闭时数组放回池子
+     */
+    static OutputStream wrap(OutputStream out) {
+        return new PooledOutputStream(out, acquire());
+    }
+
+    private static byte[] acquire() {
+        byte[] chunk;
+        synchronized (sPool) {
+            chunk = sPool.pollFirst();
+        }
+        return chunk != null ? chunk : new byte[CHUNK_SIZE];
+    }
+
+    private static void release(byte[] chunk) {
+        synchronized (sPool) {
+            if (sPool.size() < MAX_POOLED) {
+                sPool.offerFirst(chunk);
+            }
+        }
+    }
+
+    /**
+     * 内存偏低或界面不可见时清空
+     */
+    static void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (sPool) {
+                sPool.clear();
+            }
+        }
+    }
+
+    /**
+     * 和 BufferedOutputStream 一样，只是缓冲数组来自池子；只在一个线程中使用
+     */
+    private static final class PooledOutputStream extends OutputStream {
+
+        private final OutputStream mOut;
+        private byte[] mBuffer;
+        private int mCount;
+
+        PooledOutputStream(OutputStream out, byte[] buffer) {
+            mOut = out;
+            mBuffer = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            if (mCount == mBuffer.length) {
+                flushBuffer();
+            }
+            mBuffer[mCount++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            if (len >= mBuffer.length) {
+                // 比缓冲区还大的直接写，不再经过一次拷贝
+                flushBuffer();
+                mOut.write(b, off, len);
+                return;
+            }
+            if (len > mBuffer.length - mCount) {
+                flushBuffer();
+            }
+            System.arraycopy(b, off, mBuffer, mCount, len);
+            mCount += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ensureOpen();
+            flushBuffer();
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mBuffer == null) {
+                return;
+            }
+            try {
+                flushBuffer();
+            } finally {
+                release(mBuffer);
+                mBuffer = null;
+                mOut.close();
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            if (mCount > 0) {
+                mOut.write(mBuffer, 0, mCount);
+                mCount = 0;
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (mBuffer == null) {
+                throw new IOException("Stream closed");
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.pichs.filechooser;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多选结果的流式返回，每处理完一项就可以取走，不需要等全部完成
+ * 队列有容量上限：处理完还没取走的项达到上限时暂停处理，取走一项才继续，调用方处理慢时不会堆积内存
+ * 项按处理完成的顺序返回，选择顺序见 {@link ChooseResult#getIndex()}
+ * <pre>
+ *     ChooseResult result;
+ *     while ((result = stream.take()) != null) { // 后台线程
+ *         upload(result);
+ *     }
+ *     if (stream.getError() != null) { ... }
+ * </pre>
+ */
+@SuppressWarnings("ALL")
+public class ResultStream implements Closeable {
+
+    /**
+     * 结束标记
+     */
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> mQueue = new LinkedBlockingQueue<>();
+    private final int mTotal;
+    private final int mCapacity;
+    private volatile BatchProcessor mProcessor;
+    private volatile Throwable mError;
+    private volatile boolean mCanceled;
+    private volatile boolean mEnded;
+    // 取消或出错后不再接收新的项，由 this 保护
+    private boolean mClosed;
+
+    ResultStream(int total, int capacity) {
+        mTotal = total;
+        mCapacity = Math.max(1, capacity);
+    }
+
+    void attach(BatchProcessor processor) {
+        mProcessor = processor;
+        processor.setCapacity(mCapacity);
+    }
+
+    /**
+     * 取下一项，没有时阻塞等待，不要在主线程调用
+     *
+     * @return 全部返回完、取消或出错时返回 null
+     */
+    @Nullable
+    @WorkerThread
+    public ChooseResult take() throws InterruptedException {
+        return onTaken(mQueue.take());
+    }
+
+    /**
+     * 取下一项，最多等待 timeout
+     *
+     * @return 超时、全部返回完、取消或出错时返回 null，用 {@link #isDone()} 区分
+     */
+    @Nullable
+    @WorkerThread
+    public ChooseResult poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return onTaken(mQueue.poll(timeout, unit));
+    }
+
+    private ChooseResult onTaken(Object item) {
+        if (item == null) {
+            return null;
+        }
+        if (item == END) {
+            // 放回去，之后的调用也能立即返回
+            mQueue.offer(END);
+            mEnded = true;
+            return null;
+        }
+        BatchProcessor processor = mProcessor;
+        if (processor != null) {
+            processor.onConsumed();
+        }
+        return (ChooseResult) item;
+    }
+
+    /**
+     * 取消，已处理完还没取走的项和之后处理完的项都会释放 bitmap 后丢弃，等待中的 take 返回 null
+     */
+    public void cancel() {
+        final List<Object> drained = new ArrayList<>();
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            mCanceled = true;
+            mClosed = true;
+            mQueue.drainTo(drained);
+            mQueue.offer(END);
+        }
+        for (Object item : drained) {
+            if (item instanceof ChooseResult) {
+                ((ChooseResult) item).release();
+            }
+        }
+        BatchProcessor processor = mProcessor;
+        if (processor != null) {
+            processor.cancel();
+        }
+    }
+
+    @Override
+    public void close() {
+        cancel();
+    }
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * 是否已经取到结束标记
+     */
+    public boolean isDone() {
+        return mEnded;
+    }
+
+    /**
+     * 选中的总数
+     */
+    public int getTotal() {
+        return mTotal;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * 整体出错的原因（单项失败见 {@link ChooseResult#getError()}），正常结束或取消时为 null
+     */
+    @Nullable
+    public Throwable getError() {
+        return mError;
+    }
+
+    void onItem(ChooseResult result) {
+        synchronized (this) {
+            if (!mClosed) {
+                mQueue.offer(result);
+                return;
+            }
+        }
+        // 取消后才处理完的项没人会取走
+        result.release();
+    }
+
+    synchronized void onComplete() {
+        if (!mClosed) {
+            mClosed = true;
+            mQueue.offer(END);
+        }
+    }
+
+    void onError(Throwable error) {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mError = error;
+            mQueue.offer(END);
+        }
+        BatchProcessor processor = mProcessor;
+        if (processor != null) {
+            processor.cancel();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.pichs.filechooser;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.util.Log;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 缩略图：只需要小图预览时使用，比完整解码快得多
+ * 依次尝试：
+ * 1、cacheDir/thumbnails 下的磁盘缓存，按 (Uri, 尺寸, 修改时间) 命名，图片变了自然失效
+ * 2、10.0 及以上 ContentResolver.loadThumbnail，10.0 以下相册图片使用 MediaStore.Images.Thumbnails
+ * 3、按尺寸采样解码原图
+ * 得到的缩略图在后台写入磁盘缓存，不耽误返回，磁盘缓存由 {@link FileStorageManager} 清理
+ */
+@SuppressWarnings("ALL")
+public class ThumbnailLoader {
+
+    private static final String TAG = "ThumbnailLoader";
+
+    static final String DIR_NAME = "thumbnails";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int CACHE_QUALITY = 85;
+
+    private static final String MEDIA_DOCUMENTS_AUTHORITY = "com.android.providers.media.documents";
+
+    private ThumbnailLoader() {
+    }
+
+    /**
+     * 缓存目录
+     */
+    public static File getCacheDir(@NonNull Context context) {
+        return new File(context.getCacheDir(), DIR_NAME);
+    }
+
+    /**
+     * 加载缩略图，不要在主线程调用
+     *
+     * @param context 上下文
+     * @param uri     图片 Uri
+     * @param size    缩略图最长边，返回的图不超过 size x size
+     * @return 缩略图，不能解码返回 null
+     */
+    @Nullable
+    @WorkerThread
+    public static Bitmap load(@NonNull Context context, @NonNull Uri uri, int size) throws IOException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size <= 0");
+        }
+        // FileMeta 的内存缓存由 ContentObserver 失效，file:// 和本应用 FileProvider 这类会被重写的 Uri 不缓存、每次重新查询
+        final FileMeta meta = FileMeta.get(context, uri);
+        // 拿不到修改时间时无法判断图片有没有变，不走磁盘缓存
+        final File cacheFile = meta.getLastModified() > 0
+                ? new File(getCacheDir(context), DocumentCache.hashKey(uri + "/" + size + "/" + meta.getLastModified()))
+                : null;
+        if (cacheFile != null && cacheFile.isFile()) {
+            Bitmap cached = BitmapFactory.decodeFile(cacheFile.getAbsolutePath());
+            if (cached != null) {
+                cacheFile.setLastModified(System.currentTimeMillis());
+                return cached;
+            }
+            cacheFile.delete();
+        }
+
+        Bitmap bitmap = loadSystemThumbnail(context, uri, size);
+        if (bitmap == null) {
+            bitmap = BitmapDecoder.decode(context, uri, size, size, Bitmap.Config.ARGB_8888);
+        }
+        if (bitmap != null && cacheFile != null) {
+            writeCacheAsync(bitmap, cacheFile);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 系统提供的缩略图，没有时返回 null
+     */
+    private static Bitmap loadSystemThumbnail(Context context, Uri uri, int size) {
+        if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+            return null;
+        }
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Bitmap bitmap = context.getContentResolver().loadThumbnail(uri, new Size(size, size), null);
+                return bitmap == null ? null : BitmapDecoder.scaleToFit(bitmap, size, size);
+            }
+            final long id = getMediaImageId(context, uri);
+            if (id < 0) {
+                return null;
+            }
+            Bitmap bitmap = MediaStore.Images.Thumbnails.getThumbnail(context.getContentResolver(), id,
+                    MediaStore.Images.Thumbnails.MINI_KIND, null);
+            if (bitmap == null) {
+                return null;
+            }
+            // 老的缩略图没有按方向旋转
+            return BitmapDecoder.scaleToFit(bitmap, size, size, queryOrientation(context, id));
+        } catch (Exception e) {
+            // 不支持缩略图的 provider 会抛异常，回退为采样解码
+            Log.w(TAG, "system thumbnail failed, fall back to decode: " + uri + ", " + e);
+            return null;
+        }
+    }
+
+    /**
+     * 相册图片在 MediaStore 中的 id，不是相册图片返回 -1
+     */
+    private static long getMediaImageId(Context context, Uri uri) {
+        if (MediaStore.AUTHORITY.equals(uri.getAuthority())) {
+            final String path = uri.getPath();
+            if (path != null && path.contains("/images/")) {
+                return ContentUris.parseId(uri);
+            }
+            return -1;
+        }
+        if (MEDIA_DOCUMENTS_AUTHORITY.equals(uri.getAuthority()) && DocumentsContract.isDocumentUri(context, uri)) {
+            final String[] split = DocumentsContract.getDocumentId(uri).split(":");
+            if (split.length == 2 && "image".equals(split[0])) {
+                try {
+                    return Long.parseLong(split[1]);
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * MediaStore 记录的旋转角度，换算成 EXIF 方向
+     */
+    private static int queryOrientation(Context context, long id) {
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(
+                    ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, id),
+                    new String[]{MediaStore.Images.ImageColumns.ORIENTATION}, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                switch (cursor.getInt(0)) {
+                    case 90:
+                        return ExifOrientation.ROTATE_90;
+                    case 180:
+                        return ExifOrientation.ROTATE_180;
+                    case 270:
+                        return ExifOrientation.ROTATE_270;
+                    default:
+                        break;
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return ExifOrientation.NORMAL;
+    }
+
+    /**
+     * 在后台写入磁盘缓存，先返回缩略图
+     * 返回的缩略图归调用方，可能被回收或放进 {@link BitmapPool} 复用，所以编码用的是副本；缩略图很小，复制的代价远低于编码
+     */
+    private static void writeCacheAsync(Bitmap bitmap, final File cacheFile) {
+        final Bitmap copy;
+        try {
+            copy = bitmap.copy(bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888, false);
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "skip thumbnail cache: " + e);
+            return;
+        }
+        if (copy == null) {
+            return;
+        }
+        try {
+            FileUriAsync.getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writeCache(copy, cacheFile);
+                    } finally {
+                        copy.recycle();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            copy.recycle();
+        }
+    }
+
+    /**
+     * 写入磁盘缓存，失败只是下次重新生成
+     */
+    private static void writeCache(Bitmap bitmap, File cacheFile) {
+        final File dir = cacheFile.getParentFile();
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        final File tmp = new File(dir, cacheFile.getName() + "." + Thread.currentThread().getId() + TMP_SUFFIX);
+        OutputStream os = null;
+        boolean success = false;
+        try {
+            final Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+            os = OutputBufferPool.wrap(new FileOutputStream(tmp));
+            if (bitmap.compress(format, CACHE_QUALITY, os)) {
+                os.close();
+                os = null;
+                success = tmp.renameTo(cacheFile);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (!success) {
+                tmp.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.pichs.filechooser;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 超大图（全景图、扫描件等）的分块预览，基于 BitmapRegionDecoder，只解码可见区域的块
+ * 坐标都是按 EXIF 方向摆正后的坐标，每块解码后单独摆正，不会生成全尺寸的图
+ * 支持 JPEG、PNG、WebP，9.0 及以上支持 HEIF。用完需要 {@link #close()}
+ * <pre>
+ *     int sampleSize = TiledImage.calculateSampleSize(viewWidth / (float) image.getWidth());
+ *     for (Rect tile : image.getTiles(visibleRect, sampleSize)) {
+ *         Bitmap bitmap = image.decodeRegion(tile, sampleSize); // 后台线程
+ *     }
+ * </pre>
+ */
+@SuppressWarnings("ALL")
+public class TiledImage implements Closeable {
+
+    /**
+     * 每块解码后的边长（像素）
+     */
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    private final Context mContext;
+    private final Uri mUri;
+    private final UriSource mSource;
+    private final BitmapRegionDecoder mDecoder;
+    private final int mOrientation;
+    private final int mRawWidth;
+    private final int mRawHeight;
+    private final Bitmap.Config mConfig;
+    private int mTileSize = DEFAULT_TILE_SIZE;
+
+    private TiledImage(Context context, Uri uri, UriSource source, BitmapRegionDecoder decoder,
+                       int orientation, Bitmap.Config config) {
+        mContext = context;
+        mUri = uri;
+        mSource = source;
+        mDecoder = decoder;
+        mOrientation = orientation;
+        mRawWidth = decoder.getWidth();
+        mRawHeight = decoder.getHeight();
+        mConfig = config;
+    }
+
+    /**
+     * 打开图片，只读取头信息，不解码像素
+     *
+     * @param config 像素格式，为空或 HARDWARE 时使用 ARGB_8888
+     * @throws IOException 文件打不开或格式不支持
+     */
+    @NonNull
+    @WorkerThread
+    public static TiledImage open(@NonNull Context context, @NonNull Uri uri, @Nullable Bitmap.Config config) throws IOException {
+        final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        if (config == null || (Build.VERSION.SDK_INT >= 26 && config == Bitmap.Config.HARDWARE)) {
+            config = Bitmap.Config.ARGB_8888;
+        }
+        final int orientation = ExifOrientation.read(appContext, uri);
+        UriSource source = FileUriUtils.openSource(appContext, uri);
+        BitmapRegionDecoder decoder = null;
+        try {
+            try {
+                decoder = BitmapRegionDecoder.newInstance(source.getParcelFileDescriptor().getFileDescriptor(), false);
+            } catch (IOException e) {
+                // 拿不到 fd 的 provider 走流，解码器会把数据读到内存里，读完就可以关闭
+                final InputStream is = source.openInputStream();
+                try {
+                    decoder = BitmapRegionDecoder.newInstance(is, false);
+                } finally {
+                    is.close();
+                }
+            }
+            if (decoder == null) {
+                throw new IOException("Unsupported image: " + uri);
+            }
+            return new TiledImage(appContext, uri, source, decoder, orientation, config);
+        } catch (Throwable t) {
+            // 包括 OOM 等非 IOException，都要关闭 fd
+            if (decoder != null) {
+                decoder.recycle();
+            }
+            source.close();
+            throw t;
+        }
+    }
+
+    @NonNull
+    public Uri getUri() {
+        return mUri;
+    }
+
+    /**
+     * 摆正后的宽度
+     */
+    public int getWidth() {
+        return ExifOrientation.swapsDimensions(mOrientation) ? mRawHeight : mRawWidth;
+    }
+
+    /**
+     * 摆正后的高度
+     */
+    public int getHeight() {
+        return ExifOrientation.swapsDimensions(mOrientation) ? mRawWidth : mRawHeight;
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    public void setTileSize(int tileSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("tileSize <= 0");
+        }
+        mTileSize = tileSize;
+    }
+
+    /**
+     * 根据显示缩放比例（显示像素 / 图片像素）计算采样率，取不低于显示精度的最大 2 的幂次
+     */
+    public static int calculateSampleSize(float scale) {
+        int sampleSize = 1;
+        if (scale <= 0) {
+            return sampleSize;
+        }
+        while (1f / (sampleSize * 2) >= scale) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 与可见区域相交的块，按行排列。块按网格对齐，同一采样率下相同位置的块不变，方便调用方缓存
+     *
+     * @param visible    可见区域，摆正后的坐标
+     * @param sampleSize 采样率，每块在原图中的边长为 tileSize * sampleSize
+     */
+    @NonNull
+    public List<Rect> getTiles(@NonNull Rect visible, int sampleSize) {
+        final int width = getWidth();
+        final int height = getHeight();
+        final int step = mTileSize * Math.max(1, sampleSize);
+        final int left = Math.max(0, visible.left);
+        final int top = Math.max(0, visible.top);
+        final int right = Math.min(width, visible.right);
+        final int bottom = Math.min(height, visible.bottom);
+        List<Rect> tiles = new ArrayList<>();
+        if (left >= right || top >= bottom) {
+            return tiles;
+        }
+        for (int y = top / step * step; y < bottom; y += step) {
+            for (int x = left / step * step; x < right; x += step) {
+                tiles.add(new Rect(x, y, Math.min(x + step, width), Math.min(y + step, height)));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * 解码一块区域并摆正，不再使用时可以归还到 {@link BitmapPool}
+     *
+     * @param rect       区域，摆正后的坐标
+     * @param sampleSize 采样率
+     * @return 解码失败返回 null
+     */
+    @Nullable
+    @WorkerThread
+    public Bitmap decodeRegion(@NonNull Rect rect, int sampleSize) {
+        final Rect raw = ExifOrientation.toRawRect(mOrientation, rect, mRawWidth, mRawHeight);
+        if (!raw.intersect(0, 0, mRawWidth, mRawHeight)) {
+            return null;
+        }
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = Math.max(1, sampleSize);
+        options.inPreferredConfig = mConfig;
+        options.inMutable = true;
+        final int sampledWidth = (raw.width() + options.inSampleSize - 1) / options.inSampleSize;
+        final int sampledHeight = (raw.height() + options.inSampleSize - 1) / options.inSampleSize;
+        // 需要摆正时，摆正前后的两块同时存在
+        final long cost = DecodeScheduler.estimateBytes(sampledWidth, sampledHeight, mConfig)
+                * (mOrientation == ExifOrientation.NORMAL ? 1 : 2);
+        try {
+            DecodeScheduler.get().acquire(cost);
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            return decodeRegion(raw, options, sampledWidth, sampledHeight);
+        } finally {
+            DecodeScheduler.get().release(cost);
+        }
+    }
+
+    private Bitmap decodeRegion(Rect raw, BitmapFactory.Options options, int sampledWidth, int sampledHeight) {
+        final Bitmap inBitmap = BitmapPool.get().getReusable(sampledWidth, sampledHeight, mConfig);
+        Bitmap bitmap = null;
+        if (inBitmap != null) {
+            options.inBitmap = inBitmap;
+            try {
+                bitmap = decode(raw, options);
+            } catch (IllegalArgumentException e) {
+                // 解码器不支持复用这块内存
+            }
+            options.inBitmap = null;
+            if (bitmap == null) {
+                // 没能复用这块内存，还给池子，下面正常解码
+                BitmapPool.get().put(inBitmap);
+            }
+        }
+        if (bitmap == null) {
+            bitmap = decode(raw, options);
+        }
+        // 只摆正这一小块
+        return BitmapDecoder.scaleToFit(bitmap, 0, 0, mOrientation);
+    }
+
+    /**
+     * 整张图的缩略预览，用于块还没解码出来时先显示
+     */
+    @Nullable
+    @WorkerThread
+    public Bitmap decodePreview(int maxWidth, int maxHeight) throws IOException {
+        return BitmapDecoder.decode(mContext, mUri, maxWidth, maxHeight, mConfig);
+    }
+
+    private Bitmap decode(Rect raw, BitmapFactory.Options options) {
+        synchronized (mDecoder) {
+            if (mDecoder.isRecycled()) {
+                return null;
+            }
+            return mDecoder.decodeRegion(raw, options);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (mDecoder) {
+            mDecoder.recycle();
+        }
+        mSource.close();
+    }
+}
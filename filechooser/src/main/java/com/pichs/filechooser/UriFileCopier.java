@@ -0,0 +1,227 @@
+package com.pichs.filechooser;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 把 Uri 对应的内容拷贝到文件
+ * 源是普通文件（能拿到大小的 fd）时走 FileChannel.transferTo，由内核直接拷贝；
+ * 管道、网络等拿不到大小的源走池化的 DirectByteBuffer
+ * 支持进度回调和 {@link CancellationSignal} 取消，失败或取消会删除写了一半的文件
+ */
+@SuppressWarnings("ALL")
+public class UriFileCopier {
+
+    private static final String TAG = "UriFileCopier";
+
+    /**
+     * transferTo 每次拷贝的大小，也是进度回调和取消检查的粒度
+     */
+    private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * 非文件源使用的缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * 缓冲池最多保留的缓冲区个数
+     */
+    private static final int MAX_POOLED_BUFFERS = 4;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> sBufferPool = new ConcurrentLinkedQueue<>();
+
+    public interface OnProgressListener {
+        /**
+         * @param copiedBytes 已拷贝的字节数
+         * @param totalBytes  总字节数，未知时为 -1
+         */
+        void onProgress(long copiedBytes, long totalBytes);
+    }
+
+    private UriFileCopier() {
+    }
+
+    /**
+     * 拷贝 Uri 内容到文件，会覆盖目标文件
+     *
+     * @param context  上下文
+     * @param uri      源
+     * @param dest     目标文件
+     * @param signal   取消信号，可为空
+     * @param listener 进度回调，在拷贝线程回调，可为空
+     * @return 拷贝的字节数
+     * @throws IOException                读写失败
+     * @throws OperationCanceledException 被取消
+     */
+    public static long copy(@NonNull Context context, @NonNull Uri uri, @NonNull File dest,
+                            @Nullable CancellationSignal signal, @Nullable OnProgressListener listener) throws IOException {
+        return copy(context, uri, dest, null, signal, listener);
+    }
+
+    /**
+     * 同上，digest 不为空时边拷贝边计算摘要（此时只能走缓冲拷贝）
+     */
+    static long copy(@NonNull Context context, @NonNull Uri uri, @NonNull File dest, @Nullable MessageDigest digest,
+                     @Nullable CancellationSignal signal, @Nullable OnProgressListener listener) throws IOException {
+        boolean success = false;
+        try {
+            long copied = copyInternal(context, uri, dest, digest, signal, listener);
+            success = true;
+            return copied;
+        } finally {
+            if (!success) {
+                dest.delete();
+            }
+        }
+    }
+
+    private static long copyInternal(Context context, Uri uri, File dest, MessageDigest digest,
+                                     CancellationSignal signal, OnProgressListener listener) throws IOException {
+        ParcelFileDescriptor pfd = null;
+        try {
+            pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (Exception e) {
+            // 有些 provider 只实现了 openInputStream（比如 openTypedAssetFile），下面用流兜底
+            Log.w(TAG, "openFileDescriptor failed, fallback to stream: " + e);
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(dest, false);
+            FileChannel out = fos.getChannel();
+            if (pfd == null) {
+                InputStream is = context.getContentResolver().openInputStream(uri);
+                if (is == null) {
+                    throw new FileNotFoundException("can't open " + uri);
+                }
+                ReadableByteChannel in = Channels.newChannel(is);
+                try {
+                    return copyBuffered(in, out, -1, 0, digest, signal, listener);
+                } finally {
+                    in.close();
+                }
+            }
+            FileInputStream fis = new FileInputStream(pfd.getFileDescriptor());
+            FileChannel in = fis.getChannel();
+            long size = pfd.getStatSize();
+            try {
+                if (size >= 0 && digest == null) {
+                    return copyTransfer(in, out, size, signal, listener);
+                }
+                return copyBuffered(in, out, size, 0, digest, signal, listener);
+            } finally {
+                fis.close();
+            }
+        } finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (pfd != null) {
+                try {
+                    pfd.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 源是普通文件，按块 transferTo，零拷贝到用户态
+     */
+    private static long copyTransfer(FileChannel in, FileChannel out, long size,
+                                     CancellationSignal signal, OnProgressListener listener) throws IOException {
+        long position = 0;
+        while (position < size) {
+            throwIfCanceled(signal);
+            long count = in.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), out);
+            if (count <= 0) {
+                // 文件被截断了，或者 transferTo 不支持这个 fd，剩下的走缓冲拷贝
+                in.position(position);
+                return position + copyBuffered(in, out, size, position, null, signal, listener);
+            }
+            position += count;
+            if (listener != null) {
+                listener.onProgress(position, size);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * 通用的缓冲拷贝，缓冲区来自池子
+     */
+    private static long copyBuffered(ReadableByteChannel in, FileChannel out, long size, long offset, MessageDigest digest,
+                                     CancellationSignal signal, OnProgressListener listener) throws IOException {
+        final ByteBuffer buffer = acquireBuffer();
+        long copied = 0;
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                throwIfCanceled(signal);
+                buffer.flip();
+                if (digest != null) {
+                    digest.update(buffer.duplicate());
+                }
+                while (buffer.hasRemaining()) {
+                    copied += out.write(buffer);
+                }
+                buffer.clear();
+                if (listener != null) {
+                    listener.onProgress(offset + copied, size);
+                }
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+        return copied;
+    }
+
+    private static void throwIfCanceled(CancellationSignal signal) {
+        if (signal != null && signal.isCanceled()) {
+            throw new OperationCanceledException();
+        }
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = sBufferPool.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        // 这里的 size() 不是原子的，多放一两个进池子也无所谓
+        if (sBufferPool.size() < MAX_POOLED_BUFFERS) {
+            sBufferPool.offer(buffer);
+        }
+    }
+}
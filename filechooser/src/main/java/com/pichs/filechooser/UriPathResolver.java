@@ -0,0 +1,31 @@
+package com.pichs.filechooser;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 按 authority 解析 Uri 真实路径的扩展接口
+ * 通过 {@link FileUriUtils#registerResolver(String, UriPathResolver)} 注册自己的 provider，
+ * 不需要改 FileUriUtils 的代码
+ * <p>
+ * FileUriUtils.registerResolver("com.xxx.provider", new UriPathResolver() {
+ * public String resolve(Context context, Uri uri) {
+ * return ...;
+ * }
+ * });
+ */
+public interface UriPathResolver {
+
+    /**
+     * 解析真实路径，可能在任意线程调用
+     *
+     * @param context 上下文
+     * @param uri     authority 与注册时一致的 Uri
+     * @return 真实路径，解析不了返回 null，会继续走通用的查询
+     */
+    @Nullable
+    String resolve(@NonNull Context context, @NonNull Uri uri);
+}
@@ -0,0 +1,157 @@
+package com.pichs.filechooser;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Uri 内容的访问句柄，不需要真实路径就能读取内容
+ * 所有资源都是用到时才打开，用完调用 {@link #close()}
+ * <p>
+ * UriSource source = FileUriUtils.openSource(context, uri);
+ * try {
+ * InputStream is = source.openInputStream();
+ * ...
+ * } finally {
+ * source.close();
+ * }
+ */
+@SuppressWarnings("ALL")
+public class UriSource implements Closeable {
+
+    private static final String TAG = "UriSource";
+
+    private final Context mContext;
+    private final Uri mUri;
+    private ParcelFileDescriptor mFileDescriptor;
+    private boolean mMetaLoaded;
+    private String mDisplayName;
+    private long mSize = -1;
+    private boolean mClosed;
+
+    UriSource(@NonNull Context context, @NonNull Uri uri) {
+        this.mContext = context;
+        this.mUri = uri;
+    }
+
+    public Uri getUri() {
+        return mUri;
+    }
+
+    /**
+     * 打开一个新的输入流，每次调用都是独立的流，由调用方关闭
+     */
+    @NonNull
+    public InputStream openInputStream() throws IOException {
+        checkNotClosed();
+        InputStream is = mContext.getContentResolver().openInputStream(mUri);
+        if (is == null) {
+            throw new FileNotFoundException("can't open " + mUri);
+        }
+        return is;
+    }
+
+    /**
+     * 打开一个新的通道，能拿到 fd 时是 FileChannel（支持 position/size），否则由输入流包装，由调用方关闭
+     */
+    @NonNull
+    public ReadableByteChannel openChannel() throws IOException {
+        checkNotClosed();
+        ParcelFileDescriptor pfd = null;
+        try {
+            pfd = mContext.getContentResolver().openFileDescriptor(mUri, "r");
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (Exception e) {
+            Log.w(TAG, "openFileDescriptor failed, fallback to stream: " + e);
+        }
+        if (pfd != null) {
+            return new ParcelFileDescriptor.AutoCloseInputStream(pfd).getChannel();
+        }
+        return Channels.newChannel(openInputStream());
+    }
+
+    /**
+     * 文件描述符，第一次调用时打开，随 {@link #close()} 一起关闭，不要自己关闭
+     */
+    @NonNull
+    public synchronized ParcelFileDescriptor getParcelFileDescriptor() throws IOException {
+        checkNotClosed();
+        if (mFileDescriptor == null) {
+            mFileDescriptor = mContext.getContentResolver().openFileDescriptor(mUri, "r");
+            if (mFileDescriptor == null) {
+                throw new FileNotFoundException("can't open " + mUri);
+            }
+        }
+        return mFileDescriptor;
+    }
+
+    /**
+     * 文件大小，未知时返回 -1
+     */
+    public long getSize() {
+        loadMeta();
+        if (mSize < 0) {
+            ParcelFileDescriptor pfd;
+            synchronized (this) {
+                pfd = mFileDescriptor;
+            }
+            if (pfd != null) {
+                mSize = pfd.getStatSize();
+            }
+        }
+        return mSize;
+    }
+
+    /**
+     * 显示名称，可能为空
+     */
+    @Nullable
+    public String getDisplayName() {
+        loadMeta();
+        return mDisplayName;
+    }
+
+    /**
+     * 名称和大小用一次查询拿到
+     */
+    private synchronized void loadMeta() {
+        if (mMetaLoaded) {
+            return;
+        }
+        mMetaLoaded = true;
+        FileMeta meta = FileMeta.get(mContext, mUri);
+        mDisplayName = meta.getDisplayName();
+        mSize = meta.getSize();
+    }
+
+    private synchronized void checkNotClosed() throws IOException {
+        if (mClosed) {
+            throw new IOException("UriSource is closed");
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        if (mFileDescriptor != null) {
+            try {
+                mFileDescriptor.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mFileDescriptor = null;
+        }
+    }
+}